@@ -0,0 +1,300 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.Tag;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.ConfigurationOptions;
+import org.spongepowered.configurate.gson.GsonConfigurationLoader;
+import org.spongepowered.configurate.hocon.HoconConfigurationLoader;
+import org.spongepowered.configurate.transformation.ConfigurationTransformation;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Applies a transformation to every data file in a directory tree at once.
+ *
+ * <p>This is meant for upgrading many files ahead of time, for example
+ * with a transformation from {@link Confabricate#minecraftDfuBuilder()}
+ * after a game update, rather than upgrading each file when it is next
+ * loaded. HOCON ({@code .conf}), JSON ({@code .json}), and compressed NBT
+ * ({@code .dat} and {@code .nbt}) files are supported.</p>
+ *
+ * <p>Files are migrated in parallel, but only a limited number are held in
+ * memory at once. Each upgraded file is written to a temporary file and
+ * then moved over the original, so an interrupted migration never leaves a
+ * partially written file. When the transformation is
+ * {@link ConfigurationTransformation.Versioned versioned}, files whose
+ * version does not change are not written.</p>
+ *
+ * @since 3.0.0
+ */
+public final class BulkMigrator {
+
+    private final ConfigurationTransformation transformation;
+    private final int parallelism;
+
+    /**
+     * Create a new builder.
+     *
+     * @return a new builder
+     * @since 3.0.0
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private BulkMigrator(final Builder builder) {
+        this.transformation = requireNonNull(builder.transformation, "A transformation must be provided");
+        this.parallelism = builder.parallelism;
+    }
+
+    /**
+     * Migrate every supported file within a directory, waiting until all
+     * files have been attempted.
+     *
+     * @param root the directory to search
+     * @return a report covering every supported file
+     * @throws IOException if the directory could not be searched
+     * @throws InterruptedException if interrupted while waiting for files
+     *     to migrate
+     * @since 3.0.0
+     */
+    public MigrationReport migrate(final Path root) throws IOException, InterruptedException {
+        final long start = System.nanoTime();
+        final Queue<MigrationReport.FileResult> results = new ConcurrentLinkedQueue<>();
+        // limits the number of files held in memory at once
+        final Semaphore inFlight = new Semaphore(this.parallelism * 2);
+        final AtomicInteger threadId = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(this.parallelism, task -> {
+            final Thread thread = new Thread(task, "Confabricate migrator #" + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try (Stream<Path> files = Files.walk(root)) {
+            for (final Path file : (Iterable<Path>) files::iterator) {
+                if (!Files.isRegularFile(file) || Format.of(file) == null) {
+                    continue;
+                }
+                inFlight.acquire();
+                executor.execute(() -> {
+                    try {
+                        results.add(this.migrateFile(file));
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        final List<MigrationReport.FileResult> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparing(MigrationReport.FileResult::file));
+        return new MigrationReport(sorted, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private MigrationReport.FileResult migrateFile(final Path file) {
+        final long start = System.nanoTime();
+        int fromVersion = ConfigurationTransformation.Versioned.VERSION_UNKNOWN;
+        int toVersion = ConfigurationTransformation.Versioned.VERSION_UNKNOWN;
+        boolean written = false;
+        try {
+            final Format format = requireNonNull(Format.of(file));
+            final ConfigurationNode node = format.read(file);
+            fromVersion = this.version(node);
+            this.transformation.apply(node);
+            toVersion = this.version(node);
+            if (!(this.transformation instanceof ConfigurationTransformation.Versioned) || toVersion != fromVersion) {
+                final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+                try {
+                    format.write(node, temporary);
+                    try {
+                        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    } catch (final AtomicMoveNotSupportedException ex) {
+                        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    written = true;
+                } finally {
+                    Files.deleteIfExists(temporary);
+                }
+            }
+            return new MigrationReport.FileResult(file, fromVersion, toVersion, written, Duration.ofNanos(System.nanoTime() - start), null);
+        } catch (final IOException | RuntimeException ex) {
+            return new MigrationReport.FileResult(file, fromVersion, toVersion, written, Duration.ofNanos(System.nanoTime() - start), ex);
+        }
+    }
+
+    private int version(final ConfigurationNode node) {
+        if (this.transformation instanceof ConfigurationTransformation.Versioned versioned) {
+            return versioned.version(node);
+        }
+        return ConfigurationTransformation.Versioned.VERSION_UNKNOWN;
+    }
+
+    /**
+     * Supported file formats.
+     */
+    private enum Format {
+        HOCON {
+            @Override
+            ConfigurationNode read(final Path file) throws IOException {
+                return HoconConfigurationLoader.builder().path(file).build().load();
+            }
+
+            @Override
+            void write(final ConfigurationNode node, final Path file) throws IOException {
+                HoconConfigurationLoader.builder().path(file).build().save(node);
+            }
+        },
+        JSON {
+            @Override
+            ConfigurationNode read(final Path file) throws IOException {
+                return GsonConfigurationLoader.builder().path(file).build().load();
+            }
+
+            @Override
+            void write(final ConfigurationNode node, final Path file) throws IOException {
+                GsonConfigurationLoader.builder().path(file).build().save(node);
+            }
+        },
+        NBT {
+            @Override
+            ConfigurationNode read(final Path file) throws IOException {
+                final CompoundTag tag;
+                try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                    tag = NbtIo.readCompressed(in);
+                }
+                final ConfigurationNode node = NbtNodeAdapter.createEmptyNode(ConfigurationOptions.defaults());
+                NbtNodeAdapter.tagToNode(tag, node);
+                return node;
+            }
+
+            @Override
+            void write(final ConfigurationNode node, final Path file) throws IOException {
+                final Tag tag = NbtNodeAdapter.nodeToTag(node);
+                if (!(tag instanceof CompoundTag compound)) {
+                    throw new IOException("Migrated data was not a compound tag");
+                }
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                    NbtIo.writeCompressed(compound, out);
+                }
+            }
+        };
+
+        static @Nullable Format of(final Path file) {
+            final String name = file.getFileName().toString();
+            if (name.endsWith(".conf")) {
+                return HOCON;
+            } else if (name.endsWith(".json")) {
+                return JSON;
+            } else if (name.endsWith(".dat") || name.endsWith(".nbt")) {
+                return NBT;
+            }
+            return null;
+        }
+
+        abstract ConfigurationNode read(Path file) throws IOException;
+
+        abstract void write(ConfigurationNode node, Path file) throws IOException;
+    }
+
+    /**
+     * A builder for bulk migrators.
+     *
+     * @since 3.0.0
+     */
+    public static final class Builder {
+
+        private @Nullable ConfigurationTransformation transformation;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+
+        Builder() {
+        }
+
+        /**
+         * Set the transformation to apply to every file.
+         *
+         * <p>When the transformation is
+         * {@link ConfigurationTransformation.Versioned versioned}, files are
+         * only written back when their version changes, and the report
+         * includes each file's version before and after migration.</p>
+         *
+         * @param transformation the transformation
+         * @return this builder
+         * @since 3.0.0
+         */
+        public Builder transformation(final ConfigurationTransformation transformation) {
+            this.transformation = requireNonNull(transformation, "transformation");
+            return this;
+        }
+
+        /**
+         * Set the number of files to migrate at once.
+         *
+         * <p>By default, this is the number of available processors.</p>
+         *
+         * @param parallelism the number of concurrent migrations
+         * @return this builder
+         * @since 3.0.0
+         */
+        public Builder parallelism(final int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism must be at least 1, but was " + parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Create a new migrator from this builder's state.
+         *
+         * @return a new migrator
+         * @since 3.0.0
+         */
+        public BulkMigrator build() {
+            return new BulkMigrator(this);
+        }
+
+    }
+
+}
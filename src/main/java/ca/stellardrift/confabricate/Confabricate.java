@@ -19,10 +19,23 @@ import ca.stellardrift.confabricate.typeserializers.MinecraftSerializers;
 import com.google.errorprone.annotations.RestrictedApi;
 import com.mojang.datafixers.DSL;
 import com.mojang.datafixers.DataFixer;
-import com.mojang.serialization.Dynamic;
+import io.leangen.geantyref.TypeToken;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.loader.api.FabricLoader;
 import net.fabricmc.loader.api.ModContainer;
@@ -31,15 +44,15 @@ import net.minecraft.resources.ResourceLocation;
 import net.minecraft.util.datafix.DataFixers;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.spongepowered.configurate.CommentedConfigurationNode;
 import org.spongepowered.configurate.ConfigurateException;
 import org.spongepowered.configurate.ConfigurationNode;
 import org.spongepowered.configurate.ConfigurationOptions;
 import org.spongepowered.configurate.NodePath;
-import org.spongepowered.configurate.extra.dfu.v4.ConfigurateOps;
 import org.spongepowered.configurate.extra.dfu.v4.DataFixerTransformation;
-import org.spongepowered.configurate.hocon.HoconConfigurationLoader;
 import org.spongepowered.configurate.loader.ConfigurationLoader;
+import org.spongepowered.configurate.reactive.Disposable;
 import org.spongepowered.configurate.reference.ConfigurationReference;
 import org.spongepowered.configurate.reference.WatchServiceListener;
 import org.spongepowered.configurate.transformation.ConfigurationTransformation;
@@ -73,7 +86,7 @@ public class Confabricate implements ModInitializer {
                 }
             }, "Confabricate shutdown thread"));
         } catch (final IOException e) {
-            LOGGER.error("Could not initialize file listener", e);
+            LOGGER.error("Could not initialize file listener, configuration files will be polled for changes instead", e);
         }
     }
 
@@ -94,6 +107,12 @@ public class Confabricate implements ModInitializer {
     public void onInitialize() {
         // initialize serializers early, fail fast
         MinecraftSerializers.collection();
+
+        if (FabricLoader.getInstance().isModLoaded(LifecycleHooks.LIFECYCLE_EVENTS_MOD)) {
+            LifecycleHooks.register();
+        }
+
+        DataFixerWarmup.start();
     }
 
     /**
@@ -158,7 +177,8 @@ public class Confabricate implements ModInitializer {
      * <p>The returned {@link ConfigurationLoader ConfigurationLoaders} will be
      * pre-configured to use the type serializers from
      * {@link MinecraftSerializers#collection()}, but will otherwise use
-     * default settings.
+     * default settings. Saves are written as described in
+     * {@link #loaderFor(ModContainer, boolean, ConfigurationFormat, ConfigurationOptions)}.
      *
      * @param mod the mod to get the configuration loader for
      * @param ownDirectory whether the configuration should be in a directory
@@ -171,11 +191,35 @@ public class Confabricate implements ModInitializer {
             final ModContainer mod,
             final boolean ownDirectory,
             final ConfigurationOptions options) {
-        return HoconConfigurationLoader.builder()
-                .path(configurationFile(mod, ownDirectory))
-                .defaultOptions(options)
-                .build();
+        return loaderFor(mod, ownDirectory, ConfigurationFormat.HOCON, options);
+    }
 
+    /**
+     * Create a configuration loader for the given mod's main configuration
+     * file, stored in the provided format.
+     *
+     * <p>The file is located as described in
+     * {@link #configurationFile(ModContainer, boolean, ConfigurationFormat)}.
+     * Saves through the returned loader are written atomically, and
+     * skipped when the file already has the saved contents.
+     * {@link ConfigurationLoader#save(ConfigurationNode)} writes on the
+     * calling thread, while {@link #saveAsync(ConfigurationReference)}
+     * writes on a background thread.</p>
+     *
+     * @param mod the mod to get the configuration loader for
+     * @param ownDirectory whether the configuration should be in a directory
+     *                     just for the mod, or a file in the config root
+     * @param format the format to store the configuration in
+     * @param options the options to use by default when loading
+     * @return the newly created configuration loader
+     * @since 3.0.0
+     */
+    public static ConfigurationLoader<CommentedConfigurationNode> loaderFor(
+            final ModContainer mod,
+            final boolean ownDirectory,
+            final ConfigurationFormat format,
+            final ConfigurationOptions options) {
+        return managedLoader(configurationFile(mod, ownDirectory, format), options);
     }
 
     /**
@@ -236,6 +280,11 @@ public class Confabricate implements ModInitializer {
      * use the type serializers from {@link MinecraftSerializers#collection()}
      * but will otherwise use default settings.
      *
+     * <p>Code that reads a typed value often, such as every tick, should hold
+     * a {@link ConfigurationReference#referenceTo(Class, Object...) value
+     * reference} and call its {@code get()}. The value is deserialized once
+     * per reload and cached, so each read is a single field access.</p>
+     *
      * @param mod the mod to get the configuration loader for
      * @param ownDirectory whether the configuration should be in a directory
      *                     just for the mod
@@ -249,12 +298,534 @@ public class Confabricate implements ModInitializer {
             final ModContainer mod,
             final boolean ownDirectory,
             final ConfigurationOptions options) throws ConfigurateException {
-        return fileWatcher().listenToConfiguration(path -> {
-            return HoconConfigurationLoader.builder()
-                    .path(path)
-                    .defaultOptions(options)
-                    .build();
-        }, configurationFile(mod, ownDirectory));
+        final Path file = configurationFile(mod, ownDirectory);
+        return watching(managedLoader(file, options), mod.getMetadata().getId());
+    }
+
+    /**
+     * Get a configuration reference for a mod, stored in the provided
+     * format.
+     *
+     * <p>The file is located as described in
+     * {@link #configurationFile(ModContainer, boolean, ConfigurationFormat)},
+     * and otherwise behaves like one from
+     * {@link #configurationFor(ModContainer, boolean, ConfigurationOptions)}.</p>
+     *
+     * @param mod the mod to get the configuration loader for
+     * @param ownDirectory whether the configuration should be in a directory
+     *                     just for the mod
+     * @param format the format to store the configuration in
+     * @param options the options to use by default when loading
+     * @return the newly created and loaded configuration reference
+     * @throws ConfigurateException if a listener could not be established or
+     *                              the configuration failed to load.
+     * @since 3.0.0
+     */
+    public static ConfigurationReference<CommentedConfigurationNode> configurationFor(
+            final ModContainer mod,
+            final boolean ownDirectory,
+            final ConfigurationFormat format,
+            final ConfigurationOptions options) throws ConfigurateException {
+        return watching(managedLoader(configurationFile(mod, ownDirectory, format), options), mod.getMetadata().getId());
+    }
+
+    /**
+     * Get a configuration reference for an arbitrary file.
+     *
+     * <p>The format is chosen by the file's extension, as described in
+     * {@link ConfigurationFormat#forFile(Path)}, and files with unknown
+     * extensions are treated as HOCON. The reference will automatically
+     * reload when the file changes.</p>
+     *
+     * @param file the file to load
+     * @param options the options to use by default when loading
+     * @return the newly created and loaded configuration reference
+     * @throws ConfigurateException if a listener could not be established or
+     *                              the configuration failed to load.
+     * @since 3.0.0
+     */
+    public static ConfigurationReference<CommentedConfigurationNode> configurationAt(
+            final Path file,
+            final ConfigurationOptions options) throws ConfigurateException {
+        return watching(managedLoader(file, options), null);
+    }
+
+    /**
+     * Get a configuration reference for an arbitrary file, reading unset
+     * values through to shared defaults.
+     *
+     * <p>The loaded node only holds values present in the file, and
+     * defaults are never copied into it, as described in
+     * {@link SharedDefaults}. Saved files still contain every default.
+     * Otherwise, this behaves like
+     * {@link #configurationAt(Path, ConfigurationOptions)}.</p>
+     *
+     * @param file the file to load
+     * @param options the options to use by default when loading
+     * @param defaults the defaults to read through to
+     * @return the newly created and loaded configuration reference
+     * @throws ConfigurateException if a listener could not be established or
+     *                              the configuration failed to load.
+     * @since 3.0.0
+     */
+    public static ConfigurationReference<CommentedConfigurationNode> configurationAt(
+            final Path file,
+            final ConfigurationOptions options,
+            final SharedDefaults defaults) throws ConfigurateException {
+        return watching(managedLoader(file, options, defaults), null);
+    }
+
+    /**
+     * Create a loader for a file managed by Confabricate.
+     *
+     * <p>The format is chosen by the file's extension, defaulting to HOCON
+     * for unknown extensions.</p>
+     *
+     * @param file the file to load
+     * @param options the options to use by default when loading
+     * @return a new loader
+     */
+    static ManagedLoader managedLoader(final Path file, final ConfigurationOptions options) {
+        return managedLoader(file, options, null);
+    }
+
+    /**
+     * Create a loader for a file managed by Confabricate.
+     *
+     * <p>The format is chosen by the file's extension, defaulting to HOCON
+     * for unknown extensions.</p>
+     *
+     * @param file the file to load
+     * @param options the options to use by default when loading
+     * @param defaults defaults to read through to, if any
+     * @return a new loader
+     */
+    static ManagedLoader managedLoader(final Path file, final ConfigurationOptions options, final @Nullable SharedDefaults defaults) {
+        return managedLoader(file, options, defaults, NodeReconciler.ENABLED);
+    }
+
+    /**
+     * Create a loader for a file managed by Confabricate.
+     *
+     * @param file the file to load
+     * @param options the options to use by default when loading
+     * @param defaults defaults to read through to, if any
+     * @param reuseNodes whether to merge each load into the tree returned
+     *     by the previous load
+     * @return a new loader
+     */
+    static ManagedLoader managedLoader(
+        final Path file,
+        final ConfigurationOptions options,
+        final @Nullable SharedDefaults defaults,
+        final boolean reuseNodes
+    ) {
+        final @Nullable ConfigurationFormat detected = ConfigurationFormat.forFile(file);
+        final ConfigurationFormat format = detected == null ? ConfigurationFormat.HOCON : detected;
+        // other formats parse quickly enough that caching does not pay off
+        final @Nullable ParseCache cache = format == ConfigurationFormat.HOCON ? ParseCacheHolder.INSTANCE : null;
+        return new ManagedLoader(file, format, defaults == null ? options : defaults.options(options), cache, defaults, reuseNodes);
+    }
+
+    /**
+     * Create a reference that reloads when its file changes.
+     *
+     * <p>Watch events are debounced, so a burst of changes to the file only
+     * triggers one reload, and changes made by the reference's own saves
+     * are ignored. Failed reloads are published to the reference's
+     * {@link ConfigurationReference#errors() errors}, and closing the
+     * reference stops watching the file.</p>
+     *
+     * @param loader the loader for the file
+     * @param owner the ID of the mod owning the file, if any, which
+     *     determines the executor it is reloaded on
+     * @return a loaded reference
+     * @throws ConfigurateException if a listener could not be established or
+     *                              the configuration failed to load
+     */
+    static ConfigurationReference<CommentedConfigurationNode> watching(
+        final ManagedLoader loader,
+        final @Nullable String owner
+    ) throws ConfigurateException {
+        final WatchedReference<CommentedConfigurationNode> reference = new WatchedReference<>(ConfigurationReference.fixed(loader));
+        reference.watchedBy(watch(loader, owner, reference::reload));
+        return reference;
+    }
+
+    private static Disposable watch(
+        final ManagedLoader loader,
+        final @Nullable String owner,
+        final ReloadDebouncer.ReloadAction reload
+    ) throws ConfigurateException {
+        final ReloadDebouncer debouncer = new ReloadDebouncer(loader.file(), owner, () -> {
+            if (!loader.unchangedOnDisk()) {
+                reload.reload();
+            }
+        });
+        final Disposable registration = FileWatchers.listenToFile(loader.file(), debouncer);
+        return () -> {
+            registration.dispose();
+            debouncer.close();
+        };
+    }
+
+    /**
+     * Get a directory of configuration files for a mod, one per key.
+     *
+     * <p>The directory will be at
+     * <pre>&lt;config root&gt;/&lt;modid&gt;/&lt;name&gt;</pre>
+     * and hold HOCON files, loaded lazily and unloaded once unused for five
+     * minutes, as described in {@link ConfigurationDirectory}.</p>
+     *
+     * @param mod the mod owning the directory
+     * @param name the name of the directory within the mod's own
+     *     configuration directory
+     * @return a new configuration directory
+     * @throws ConfigurateException if the directory could not be watched
+     * @since 3.0.0
+     */
+    public static ConfigurationDirectory configurationDirectoryFor(final ModContainer mod, final String name) throws ConfigurateException {
+        final Path directory = FabricLoader.getInstance().getConfigDir().resolve(mod.getMetadata().getId()).resolve(name);
+        return new ConfigurationDirectory(
+            directory,
+            ConfigurationFormat.HOCON,
+            confabricateOptions(),
+            Duration.ofMinutes(5),
+            null,
+            mod.getMetadata().getId()
+        );
+    }
+
+    /**
+     * Get a directory of configuration files, one per key.
+     *
+     * <p>Only files in use are kept loaded, and the whole directory shares a
+     * single watch registration, as described in
+     * {@link ConfigurationDirectory}.</p>
+     *
+     * @param directory the directory holding configuration files
+     * @param format the format of files in the directory
+     * @param options the options to use by default when loading
+     * @param idleTimeout how long a file may go unrequested before it is
+     *     unloaded
+     * @return a new configuration directory
+     * @throws ConfigurateException if the directory could not be watched
+     * @since 3.0.0
+     */
+    public static ConfigurationDirectory configurationDirectory(
+            final Path directory,
+            final ConfigurationFormat format,
+            final ConfigurationOptions options,
+            final Duration idleTimeout) throws ConfigurateException {
+        return new ConfigurationDirectory(directory, format, options, idleTimeout, null, null);
+    }
+
+    /**
+     * Get a directory of configuration files, one per key, that all read
+     * unset values through to the same shared defaults.
+     *
+     * <p>Since loaded files only hold the values they change, many files
+     * with large defaults take little memory, as described in
+     * {@link SharedDefaults}.</p>
+     *
+     * @param directory the directory holding configuration files
+     * @param format the format of files in the directory
+     * @param options the options to use by default when loading
+     * @param idleTimeout how long a file may go unrequested before it is
+     *     unloaded
+     * @param defaults the defaults shared by every file
+     * @return a new configuration directory
+     * @throws ConfigurateException if the directory could not be watched
+     * @since 3.0.0
+     */
+    public static ConfigurationDirectory configurationDirectory(
+            final Path directory,
+            final ConfigurationFormat format,
+            final ConfigurationOptions options,
+            final Duration idleTimeout,
+            final SharedDefaults defaults) throws ConfigurateException {
+        return new ConfigurationDirectory(directory, format, options, idleTimeout, defaults, null);
+    }
+
+    /**
+     * Create a read-through view over several configuration references.
+     *
+     * <p>Later layers override earlier ones, such as a global configuration
+     * followed by per-world overrides. Lookups are cached per path, and a
+     * layer reloading only invalidates the paths it could affect, as
+     * described in {@link ConfigurationOverlay}.</p>
+     *
+     * @param layers the layers, from lowest to highest priority
+     * @return a new overlay
+     * @since 3.0.0
+     */
+    public static ConfigurationOverlay overlay(final ConfigurationReference<?>... layers) {
+        return ConfigurationOverlay.of(layers);
+    }
+
+    /**
+     * Track changes to parts of a configuration reference.
+     *
+     * <p>Subscribers register for a path, and are only notified when a
+     * reload changes the value at that path, as described in
+     * {@link ConfigurationChanges}.</p>
+     *
+     * @param reference the reference to track
+     * @return a new change tracker
+     * @since 3.0.0
+     */
+    public static ConfigurationChanges changesFor(final ConfigurationReference<?> reference) {
+        return ConfigurationChanges.of(reference);
+    }
+
+    /**
+     * Get a copy-on-write view of a mod's main configuration, safe to read
+     * from any thread while it reloads.
+     *
+     * <p>The configuration is located and loaded as described in
+     * {@link #configurationFor(ModContainer, boolean, ConfigurationOptions)},
+     * in the mod's own directory. Readers share one published tree without
+     * taking any locks, as described in {@link SharedConfiguration}.</p>
+     *
+     * @param mod the mod to get the configuration for
+     * @param options the options to use by default when loading
+     * @return a shared view of the newly loaded configuration
+     * @throws ConfigurateException if a listener could not be established or
+     *                              the configuration failed to load.
+     * @since 3.0.0
+     */
+    public static SharedConfiguration<CommentedConfigurationNode> sharedConfigurationFor(
+            final ModContainer mod,
+            final ConfigurationOptions options) throws ConfigurateException {
+        return SharedConfiguration.of(configurationFor(mod, true, options));
+    }
+
+    /**
+     * Load the main configuration files of several mods concurrently.
+     *
+     * <p>Each configuration is located as described in
+     * {@link #configurationFile(ModContainer, boolean)}, in the mod's own
+     * directory, and behaves like one returned by
+     * {@link #configurationFor(ModContainer)}.</p>
+     *
+     * @param mods the mods to load configurations for
+     * @param options the options to use by default when loading
+     * @return a future completing once every configuration has been
+     *     attempted, with references and errors keyed by mod
+     * @since 3.0.0
+     */
+    public static CompletableFuture<LoadResults<ModContainer>> configurationsFor(
+            final Collection<ModContainer> mods,
+            final ConfigurationOptions options) {
+        final Map<ModContainer, Path> files = new LinkedHashMap<>();
+        for (final ModContainer mod : mods) {
+            files.put(mod, configurationFile(mod, true));
+        }
+        return loadAll(files, mod -> mod.getMetadata().getId(), options);
+    }
+
+    /**
+     * Load several configuration files concurrently.
+     *
+     * <p>Each returned reference behaves like one returned by
+     * {@link #configurationFor(ModContainer)}, and will automatically
+     * reload.</p>
+     *
+     * @param files the files to load
+     * @param options the options to use by default when loading
+     * @return a future completing once every configuration has been
+     *     attempted, with references and errors keyed by file
+     * @since 3.0.0
+     */
+    public static CompletableFuture<LoadResults<Path>> configurationsAt(
+            final Collection<Path> files,
+            final ConfigurationOptions options) {
+        final Map<Path, Path> keyed = new LinkedHashMap<>();
+        for (final Path file : files) {
+            keyed.put(file, file);
+        }
+        return loadAll(keyed, file -> null, options);
+    }
+
+    private static <K> CompletableFuture<LoadResults<K>> loadAll(
+        final Map<K, Path> files,
+        final Function<K, @Nullable String> owners,
+        final ConfigurationOptions options
+    ) {
+        if (files.isEmpty()) {
+            return CompletableFuture.completedFuture(new LoadResults<>(Map.of(), Map.of()));
+        }
+
+        final int threads = Math.min(files.size(), Runtime.getRuntime().availableProcessors());
+        final AtomicInteger threadId = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, task -> {
+            final Thread thread = new Thread(task, "Confabricate loader #" + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final Map<K, ConfigurationReference<CommentedConfigurationNode>> references = new ConcurrentHashMap<>();
+        final Map<K, Exception> errors = new ConcurrentHashMap<>();
+        final CompletableFuture<?>[] tasks = new CompletableFuture<?>[files.size()];
+        int i = 0;
+        for (final Map.Entry<K, Path> entry : files.entrySet()) {
+            tasks[i++] = CompletableFuture.runAsync(() -> {
+                try {
+                    references.put(entry.getKey(), watching(managedLoader(entry.getValue(), options), owners.apply(entry.getKey())));
+                } catch (final ConfigurateException | RuntimeException ex) {
+                    errors.put(entry.getKey(), ex);
+                }
+            }, executor);
+        }
+
+        return CompletableFuture.allOf(tasks)
+            .thenApply(ignored -> new LoadResults<>(references, errors))
+            .whenComplete((result, error) -> executor.shutdown());
+    }
+
+    /**
+     * Create a snapshot reference to the provided mod's main configuration
+     * file, deserialized as a single object.
+     *
+     * <p>By default, this config file is in a dedicated directory for the mod.
+     * The returned reference will automatically reload in the background.</p>
+     *
+     * @param mod the mod wanting to access its config
+     * @param type the type of value to deserialize
+     * @param <T> value type
+     * @return a loaded snapshot reference
+     * @throws ConfigurateException if a listener could not be established or
+     *                              the configuration failed to load
+     * @see #snapshotFor(ModContainer, TypeToken, boolean, ConfigurationOptions)
+     * @since 3.0.0
+     */
+    public static <T> SnapshotReference<CommentedConfigurationNode, T> snapshotFor(
+            final ModContainer mod,
+            final Class<T> type) throws ConfigurateException {
+        return snapshotFor(mod, TypeToken.get(type), true, confabricateOptions());
+    }
+
+    /**
+     * Create a snapshot reference to a mod's configuration file,
+     * deserialized as a single object. The configuration will be in Hocon
+     * format.
+     *
+     * <p>The file is located as described in
+     * {@link #configurationFile(ModContainer, boolean)}. Reloads, whether
+     * triggered by changes to the file or requested through
+     * {@link SnapshotReference#reload()}, are performed on the mod's reload
+     * executor (see {@link #dispatchReloads(ModContainer, ReloadDispatch)})
+     * and published atomically.</p>
+     *
+     * @param mod the mod to get the configuration for
+     * @param type the type of value to deserialize
+     * @param ownDirectory whether the configuration should be in a directory
+     *                     just for the mod
+     * @param options the options to use by default when loading
+     * @param <T> value type
+     * @return a loaded snapshot reference
+     * @throws ConfigurateException if a listener could not be established or
+     *                              the configuration failed to load
+     * @since 3.0.0
+     */
+    public static <T> SnapshotReference<CommentedConfigurationNode, T> snapshotFor(
+            final ModContainer mod,
+            final TypeToken<T> type,
+            final boolean ownDirectory,
+            final ConfigurationOptions options) throws ConfigurateException {
+        final Path file = configurationFile(mod, ownDirectory);
+        // snapshots are published whole, so every load must produce a new tree
+        final ManagedLoader loader = managedLoader(file, options, null, false);
+        final String owner = mod.getMetadata().getId();
+        // look up the executor for each reload, so later configuration applies
+        final Executor executor = task -> ReloadExecutors.forOwner(owner).execute(task);
+        final SnapshotReference<CommentedConfigurationNode, T> reference = SnapshotReference.create(loader, type, executor);
+        reference.closeWith(watch(loader, owner, reference::load));
+        return reference;
+    }
+
+    /**
+     * Get statistics covering every Confabricate-managed configuration.
+     *
+     * <p>These show how many loads, reloads and saves have been performed,
+     * and how many were skipped or merged into others. When the
+     * {@code confabricate.reuseNodes} system property is set to
+     * {@code true}, reloads merge into the existing tree rather than
+     * replacing it, and {@link Statistics#loads()} shows how many nodes
+     * were kept rather than allocated again.</p>
+     *
+     * @return a snapshot of current statistics
+     * @since 3.0.0
+     */
+    public static Statistics statistics() {
+        return Statistics.collect();
+    }
+
+    /**
+     * Configure the executor a mod's configurations are reloaded on.
+     *
+     * <p>Every mod's reloads, and the listeners they notify, run on that
+     * mod's own executor, so a mod with slow listeners cannot delay reloads
+     * of any other mod's configurations. This replaces the mod's executor
+     * with one created from the provided settings. Reloads already waiting
+     * on the previous executor still run.</p>
+     *
+     * @param mod the mod whose configurations are affected
+     * @param settings the settings for the mod's new executor
+     * @since 3.0.0
+     */
+    public static void dispatchReloads(final ModContainer mod, final ReloadDispatch settings) {
+        ReloadExecutors.configure(mod.getMetadata().getId(), settings);
+    }
+
+    /**
+     * Reload a mod's configurations on the provided executor.
+     *
+     * <p>This allows full control over how reloads are run, such as on
+     * virtual threads where the runtime supports them. The executor should
+     * throw a {@link java.util.concurrent.RejectedExecutionException} when
+     * it cannot accept more work, in which case the reload is retried
+     * later.</p>
+     *
+     * @param mod the mod whose configurations are affected
+     * @param executor the executor to reload on
+     * @see #dispatchReloads(ModContainer, ReloadDispatch)
+     * @since 3.0.0
+     */
+    public static void dispatchReloads(final ModContainer mod, final Executor executor) {
+        ReloadExecutors.configure(mod.getMetadata().getId(), executor);
+    }
+
+    /**
+     * Save a configuration reference's current node without blocking the
+     * calling thread.
+     *
+     * <p>For configurations created by Confabricate, the node is copied
+     * immediately, then written on a background thread after a short delay.
+     * Further saves of the same file during that delay are merged into one
+     * write. The file is written to a temporary file first, then atomically
+     * moved into place. The delay defaults to 50 milliseconds, and can be
+     * changed with the {@code confabricate.writeDelay} system property.
+     * Written files are synced to disk unless the {@code confabricate.fsync}
+     * system property is {@code false}.</p>
+     *
+     * <p>Other references are saved on a shared background executor.</p>
+     *
+     * @param reference the reference to save
+     * @return a future completing once the configuration has been written
+     * @since 3.0.0
+     */
+    public static CompletableFuture<Void> saveAsync(final ConfigurationReference<?> reference) {
+        if (reference.loader() instanceof ManagedLoader managed) {
+            return managed.saveAsync(reference.node());
+        }
+        return CompletableFuture.runAsync(() -> {
+            try {
+                reference.save();
+            } catch (final ConfigurateException ex) {
+                throw new CompletionException(ex);
+            }
+        }, ForkJoinPool.commonPool());
     }
 
     /**
@@ -269,6 +840,24 @@ public class Confabricate implements ModInitializer {
      * @since 1.1.0
      */
     public static Path configurationFile(final ModContainer mod, final boolean ownDirectory) {
+        return configurationFile(mod, ownDirectory, ConfigurationFormat.HOCON);
+    }
+
+    /**
+     * Get the path to a configuration file in the provided format for
+     * {@code mod}.
+     *
+     * <p>The file is named for the mod's ID, with the format's
+     * {@link ConfigurationFormat#extension() extension}.</p>
+     *
+     * @param mod container of the mod
+     * @param ownDirectory whether the configuration should be in its own
+     *                  directory, or in the main configuration directory
+     * @param format the format of the file
+     * @return path to a configuration file
+     * @since 3.0.0
+     */
+    public static Path configurationFile(final ModContainer mod, final boolean ownDirectory, final ConfigurationFormat format) {
         Path configRoot = FabricLoader.getInstance().getConfigDir();
         if (ownDirectory) {
             configRoot = configRoot.resolve(mod.getMetadata().getId());
@@ -278,7 +867,7 @@ public class Confabricate implements ModInitializer {
         } catch (final IOException ignore) {
             // we tried
         }
-        return configRoot.resolve(mod.getMetadata().getId() + ".conf");
+        return configRoot.resolve(mod.getMetadata().getId() + "." + format.extension());
     }
 
     /**
@@ -312,6 +901,10 @@ public class Confabricate implements ModInitializer {
      * node. This can be used within {@link ConfigurationTransformation}
      * when some values are controlled by DFUs and some aren't.
      *
+     * <p>Nodes already at the target version are left untouched without
+     * invoking the fixer. Recent upgrades are cached, so loading the same
+     * outdated value again reuses the earlier result.</p>
+     *
      * @param fixer the fixer containing DFU transformations to apply
      * @param reference the reference to the DFU {@link DSL} type representing this node
      * @param targetVersion the version to convert to
@@ -325,10 +918,10 @@ public class Confabricate implements ModInitializer {
             final DSL.TypeReference reference,
             final int targetVersion,
             final Object... versionKey) {
+        DataFixerWarmup.declare(fixer, reference, targetVersion);
         return (inputPath, valueAtPath) -> {
             final int currentVersion = valueAtPath.node(versionKey).getInt(-1);
-            final Dynamic<ConfigurationNode> dyn = ConfigurateOps.wrap(valueAtPath);
-            valueAtPath.set(fixer.update(reference, dyn, currentVersion, targetVersion).getValue());
+            DataUpgrades.upgrade(fixer, reference, valueAtPath, currentVersion, targetVersion);
             return null;
         };
     }
@@ -337,7 +930,13 @@ public class Confabricate implements ModInitializer {
      * Access the shared watch service for listening to files in this game on
      * the default filesystem.
      *
+     * <p>Configurations created through this class are watched by this
+     * service where it is reliable, and otherwise polled for changes. Paths
+     * registered directly with this service are never polled.</p>
+     *
      * @return watcher
+     * @throws IllegalStateException if the watch service could not be
+     *     initialized
      * @since 1.1.0
      */
     public static WatchServiceListener fileWatcher() {
@@ -348,6 +947,15 @@ public class Confabricate implements ModInitializer {
         return ret;
     }
 
+    /**
+     * Get the shared watch service, if it could be initialized.
+     *
+     * @return the watch service, or {@code null}
+     */
+    static @Nullable WatchServiceListener nativeWatcher() {
+        return Confabricate.listener;
+    }
+
     /**
      * Return a builder pre-configured to apply Minecraft's DataFixers to the
      * latest game save version.
@@ -364,4 +972,95 @@ public class Confabricate implements ModInitializer {
                 .targetVersion(SharedConstants.getCurrentVersion().getDataVersion().getVersion());
     }
 
+    /**
+     * Return a builder pre-configured to apply Minecraft's DataFixers to the
+     * latest game save version, upgrading values matched by wildcard paths
+     * in parallel.
+     *
+     * <p>This uses the same version key as {@link #minecraftDfuBuilder()},
+     * so either transformation can be used for a configuration.</p>
+     *
+     * @return new transformation builder
+     * @since 3.0.0
+     */
+    public static ParallelDataFixerTransformation.Builder parallelMinecraftDfuBuilder() {
+        return ParallelDataFixerTransformation.builder()
+                .versionKey("minecraft-data-version")
+                .dataFixer(DataFixers.getDataFixer())
+                .targetVersion(SharedConstants.getCurrentVersion().getDataVersion().getVersion());
+    }
+
+    /**
+     * Declare types that will be upgraded with Minecraft's DataFixers from
+     * configurations without a stored version.
+     *
+     * <p>When the {@code confabricate.warmUpDataFixer} system property is
+     * {@code true}, the DataFixer rules for declared types are prepared on a
+     * background thread once Confabricate has initialized, so that the first
+     * upgrade of a newly created configuration does not pay to optimize
+     * them. Types added to transformations from
+     * {@link #parallelMinecraftDfuBuilder()} or
+     * {@link #createTransformAction(DataFixer, DSL.TypeReference, int, Object...)}
+     * are declared this way automatically, but transformations from
+     * {@link #minecraftDfuBuilder()} must declare their types here.</p>
+     *
+     * <p>Rules are only prepared for upgrades from an unknown version. To
+     * prepare upgrades of existing configurations, declare the version they
+     * were saved at with {@link #declareMinecraftDataTypes(int, DSL.TypeReference...)}.</p>
+     *
+     * @param types the types to declare
+     * @since 3.0.0
+     */
+    public static void declareMinecraftDataTypes(final DSL.TypeReference... types) {
+        declareMinecraftDataTypes(ConfigurationTransformation.Versioned.VERSION_UNKNOWN, types);
+    }
+
+    /**
+     * Declare types that will be upgraded with Minecraft's DataFixers from
+     * configurations saved at a known data version.
+     *
+     * <p>When the {@code confabricate.warmUpDataFixer} system property is
+     * {@code true}, the DataFixer rules for upgrading the declared types
+     * from {@code sourceVersion} to the current game version are prepared
+     * on a background thread. Rules prepared for one source version do not
+     * help values stored at any other version, so this is most useful with
+     * a version read from a configuration already on disk. Nothing is
+     * prepared when the source version is already current.</p>
+     *
+     * @param sourceVersion the data version values will be upgraded from
+     * @param types the types to declare
+     * @since 3.0.0
+     */
+    public static void declareMinecraftDataTypes(final int sourceVersion, final DSL.TypeReference... types) {
+        final DataFixer fixer = DataFixers.getDataFixer();
+        final int targetVersion = SharedConstants.getCurrentVersion().getDataVersion().getVersion();
+        for (final DSL.TypeReference type : types) {
+            DataFixerWarmup.declare(fixer, type, sourceVersion, targetVersion);
+        }
+    }
+
+    /**
+     * The cache of parsed configuration trees, created on first use.
+     *
+     * <p>Entries are stored in {@code .cache/confabricate} within the game
+     * directory, and caching is enabled by setting the
+     * {@code confabricate.parseCache} system property to {@code true}.</p>
+     */
+    private static final class ParseCacheHolder {
+        static final @Nullable ParseCache INSTANCE = create();
+
+        private static @Nullable ParseCache create() {
+            if (!ParseCache.ENABLED) {
+                return null;
+            }
+            final FabricLoader loader = FabricLoader.getInstance();
+            final String version = loader.getModContainer(MOD_ID)
+                .map(mod -> mod.getMetadata().getVersion().getFriendlyString())
+                .orElse("unknown");
+            final ParseCache cache = new ParseCache(loader.getGameDir().resolve(".cache").resolve(MOD_ID), version);
+            ForkJoinPool.commonPool().execute(cache::prune);
+            return cache;
+        }
+    }
+
 }
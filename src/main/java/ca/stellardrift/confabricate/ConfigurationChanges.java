@@ -0,0 +1,286 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.NodePath;
+import org.spongepowered.configurate.reactive.Disposable;
+import org.spongepowered.configurate.reactive.Subscriber;
+import org.spongepowered.configurate.reference.ConfigurationReference;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Change notifications for parts of a configuration reference.
+ *
+ * <p>Subscribers register for a path, rather than the whole reference.
+ * When the reference reloads, the previous and new trees are compared, and
+ * only subscribers whose path holds a different value are notified. A
+ * reload that only changes comments, or only changes an unrelated section,
+ * does not notify anyone, so subscribers never re-read sections that have
+ * not changed.</p>
+ *
+ * <p>Comparison is guided by the registered paths: sections nobody is
+ * subscribed to are never visited, and once a section is found unchanged,
+ * nothing beneath it is compared again.</p>
+ *
+ * <p>When the {@code confabricate.reuseNodes} system property is
+ * {@code true}, managed loaders merge reloads into the existing tree with
+ * {@link NodeReconciler} rather than returning a new one, so there is no
+ * previous tree to compare against. Subscribers are instead notified
+ * based on the paths the merge changed.</p>
+ *
+ * <p>Notifications are delivered on the thread that reloaded the reference,
+ * with parents notified before their children.</p>
+ *
+ * @since 3.0.0
+ */
+public final class ConfigurationChanges implements AutoCloseable {
+
+    private static final LongAdder SKIPPED_NOTIFICATIONS = new LongAdder();
+
+    private final PathNode root = new PathNode();
+    private final Disposable subscription;
+    private final @Nullable ManagedLoader loader;
+    private volatile ConfigurationNode previous;
+
+    /**
+     * Track changes to the provided reference.
+     *
+     * @param reference the reference to track
+     * @return a new change tracker
+     * @since 3.0.0
+     */
+    public static ConfigurationChanges of(final ConfigurationReference<?> reference) {
+        return new ConfigurationChanges(requireNonNull(reference, "reference"));
+    }
+
+    private ConfigurationChanges(final ConfigurationReference<?> reference) {
+        this.previous = reference.node();
+        this.loader = reference.loader() instanceof ManagedLoader managed ? managed : null;
+        this.subscription = reference.updates().subscribe(this::updated);
+    }
+
+    /**
+     * Get the number of subscriber notifications skipped because the
+     * subscribed path was unchanged by a reload, across all trackers.
+     *
+     * @return the number of skipped notifications
+     */
+    static long skippedNotifications() {
+        return SKIPPED_NOTIFICATIONS.sum();
+    }
+
+    /**
+     * Subscribe to changes at a path.
+     *
+     * <p>The subscriber is notified when the value at the path, or anything
+     * beneath it, changes.</p>
+     *
+     * @param subscriber the subscriber to notify
+     * @param path the path to watch
+     * @return a handle to cancel the subscription
+     * @since 3.0.0
+     */
+    public Disposable subscribe(final Subscriber<Change> subscriber, final Object... path) {
+        return this.subscribe(NodePath.of(path), subscriber);
+    }
+
+    /**
+     * Subscribe to changes at a path.
+     *
+     * <p>The subscriber is notified when the value at the path, or anything
+     * beneath it, changes.</p>
+     *
+     * @param path the path to watch
+     * @param subscriber the subscriber to notify
+     * @return a handle to cancel the subscription
+     * @since 3.0.0
+     */
+    public Disposable subscribe(final NodePath path, final Subscriber<Change> subscriber) {
+        requireNonNull(subscriber, "subscriber");
+        PathNode node = this.root;
+        for (final Object key : path) {
+            node = node.children.computeIfAbsent(key, k -> new PathNode());
+        }
+        final PathNode target = node;
+        target.subscribers.add(subscriber);
+        return () -> target.subscribers.remove(subscriber);
+    }
+
+    /**
+     * Stop tracking changes to the reference.
+     *
+     * @since 3.0.0
+     */
+    @Override
+    public void close() {
+        this.subscription.dispose();
+    }
+
+    private synchronized void updated(final ConfigurationNode current) {
+        final ConfigurationNode previous = this.previous;
+        this.previous = current;
+        if (previous != current) {
+            this.dispatch(this.root, NodePath.path(), previous, current);
+        } else if (this.loader != null) {
+            // the reload was merged into the existing tree, so only the merge knows what changed
+            final @Nullable List<NodePath> changes = this.loader.lastChanges();
+            if (changes != null) {
+                this.dispatchChanged(this.root, NodePath.path(), changes, current);
+            }
+        }
+    }
+
+    private void dispatch(final PathNode subscriptions, final NodePath path, final ConfigurationNode previous, final ConfigurationNode current) {
+        if (sameValue(previous, current)) {
+            skip(subscriptions);
+            return;
+        }
+
+        deliver(subscriptions, path, previous, current);
+        for (final Map.Entry<Object, PathNode> child : subscriptions.children.entrySet()) {
+            final Object key = child.getKey();
+            this.dispatch(child.getValue(), path.withAppendedChild(key), previous.node(key), current.node(key));
+        }
+    }
+
+    private void dispatchChanged(final PathNode subscriptions, final NodePath path, final List<NodePath> changes, final ConfigurationNode current) {
+        if (changes.isEmpty()) {
+            skip(subscriptions);
+            return;
+        }
+
+        deliver(subscriptions, path, current, current);
+        final int depth = path.size();
+        for (final Map.Entry<Object, PathNode> child : subscriptions.children.entrySet()) {
+            final Object key = child.getKey();
+            // changes at or above this path affect every child, deeper ones only their own branch
+            final List<NodePath> relevant = new ArrayList<>();
+            for (final NodePath change : changes) {
+                if (change.size() <= depth || Objects.equals(change.get(depth), key)) {
+                    relevant.add(change);
+                }
+            }
+            this.dispatchChanged(child.getValue(), path.withAppendedChild(key), relevant, current.node(key));
+        }
+    }
+
+    private static void deliver(
+        final PathNode subscriptions,
+        final NodePath path,
+        final ConfigurationNode previous,
+        final ConfigurationNode current
+    ) {
+        if (subscriptions.subscribers.isEmpty()) {
+            return;
+        }
+        final Change change = new Change(path, previous, current);
+        for (final Subscriber<Change> subscriber : subscriptions.subscribers) {
+            try {
+                subscriber.submit(change);
+            } catch (final RuntimeException ex) {
+                Confabricate.LOGGER.error("Failed to notify subscriber of a change to {}", path, ex);
+            }
+        }
+    }
+
+    private static void skip(final PathNode subscriptions) {
+        SKIPPED_NOTIFICATIONS.add(subscriptions.subscribers.size());
+        for (final PathNode child : subscriptions.children.values()) {
+            skip(child);
+        }
+    }
+
+    /**
+     * Compare the values of two nodes, ignoring comments and other
+     * metadata.
+     *
+     * @param a one node
+     * @param b another node
+     * @return whether both nodes hold the same value
+     */
+    static boolean sameValue(final ConfigurationNode a, final ConfigurationNode b) {
+        if (a == b) {
+            return true;
+        } else if (a.isMap()) {
+            if (!b.isMap()) {
+                return false;
+            }
+            final Map<Object, ? extends ConfigurationNode> aChildren = a.childrenMap();
+            final Map<Object, ? extends ConfigurationNode> bChildren = b.childrenMap();
+            if (aChildren.size() != bChildren.size()) {
+                return false;
+            }
+            for (final Map.Entry<Object, ? extends ConfigurationNode> child : aChildren.entrySet()) {
+                final @Nullable ConfigurationNode other = bChildren.get(child.getKey());
+                if (other == null || !sameValue(child.getValue(), other)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (a.isList()) {
+            if (!b.isList()) {
+                return false;
+            }
+            final List<? extends ConfigurationNode> aChildren = a.childrenList();
+            final List<? extends ConfigurationNode> bChildren = b.childrenList();
+            if (aChildren.size() != bChildren.size()) {
+                return false;
+            }
+            final Iterator<? extends ConfigurationNode> bIt = bChildren.iterator();
+            for (final ConfigurationNode child : aChildren) {
+                if (!sameValue(child, bIt.next())) {
+                    return false;
+                }
+            }
+            return true;
+        } else {
+            return !b.isMap() && !b.isList() && Objects.equals(a.rawScalar(), b.rawScalar());
+        }
+    }
+
+    /**
+     * A change to the value at a subscribed path.
+     *
+     * @param path the subscribed path
+     * @param previous the node at the path before the reload, or the same
+     *     node as {@code current} if the reload was merged into the
+     *     existing tree
+     * @param current the node at the path after the reload
+     * @since 3.0.0
+     */
+    public record Change(NodePath path, ConfigurationNode previous, ConfigurationNode current) {
+    }
+
+    /**
+     * Subscriptions at one path, and the paths beneath it.
+     */
+    private static final class PathNode {
+        final Map<Object, PathNode> children = new ConcurrentHashMap<>();
+        final List<Subscriber<Change>> subscribers = new CopyOnWriteArrayList<>();
+    }
+
+}
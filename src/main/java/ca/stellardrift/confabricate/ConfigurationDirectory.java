@@ -0,0 +1,350 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.CommentedConfigurationNode;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.ConfigurationOptions;
+import org.spongepowered.configurate.reactive.Disposable;
+import org.spongepowered.configurate.reactive.Subscriber;
+import org.spongepowered.configurate.reference.ConfigurationReference;
+
+/**
+ * A directory of configuration files in one format, accessed by key.
+ *
+ * <p>Each file is named for its key, with the format's
+ * {@link ConfigurationFormat#extension() extension}. Files are only loaded
+ * when first requested with {@link #get(String)}, and are unloaded again
+ * once they have not been requested for the idle timeout, so memory use
+ * scales with the files in use rather than the files on disk.</p>
+ *
+ * <p>The whole directory shares a single watch registration. Loaded files
+ * reload automatically when they change, like references from
+ * {@link Confabricate#configurationFor(net.fabricmc.loader.api.ModContainer)},
+ * while changes to files that are not loaded are ignored.</p>
+ *
+ * <p>Unloading a file closes its reference without saving it, so changes
+ * must be saved with {@link Confabricate#saveAsync(ConfigurationReference)}
+ * or {@link ConfigurationReference#save()}. References should not be kept
+ * beyond the idle timeout, as they stop reloading once unloaded. Request
+ * them again with {@link #get(String)} instead.</p>
+ *
+ * @since 3.0.0
+ */
+public final class ConfigurationDirectory implements AutoCloseable {
+
+    private final Path directory;
+    private final ConfigurationFormat format;
+    private final ConfigurationOptions options;
+    private final long idleNanos;
+    private final @Nullable SharedDefaults defaults;
+    private final @Nullable String owner;
+    private final ConcurrentMap<String, Entry> loaded = new ConcurrentHashMap<>();
+    private final Disposable subscription;
+    private final ScheduledFuture<?> sweep;
+
+    ConfigurationDirectory(
+        final Path directory,
+        final ConfigurationFormat format,
+        final ConfigurationOptions options,
+        final Duration idleTimeout,
+        final @Nullable SharedDefaults defaults,
+        final @Nullable String owner
+    ) throws ConfigurateException {
+        if (idleTimeout.isNegative() || idleTimeout.isZero()) {
+            throw new IllegalArgumentException("Idle timeout must be positive, but was " + idleTimeout);
+        }
+        this.directory = directory.toAbsolutePath().normalize();
+        this.format = format;
+        this.options = options;
+        this.idleNanos = idleTimeout.toNanos();
+        this.defaults = defaults;
+        this.owner = owner;
+        try {
+            Files.createDirectories(this.directory);
+        } catch (final IOException ex) {
+            throw new ConfigurateException(ex);
+        }
+        this.subscription = FileWatchers.listenToDirectory(this.directory, new Subscriber<WatchEvent<?>>() {
+            @Override
+            public void submit(final WatchEvent<?> item) {
+                ConfigurationDirectory.this.changed(item);
+            }
+
+            @Override
+            public void onError(final Throwable thrown) {
+                Confabricate.LOGGER.error("Error while watching {}", ConfigurationDirectory.this.directory, thrown);
+            }
+        });
+        final long sweepMillis = Math.max(1000, idleTimeout.toMillis() / 4);
+        this.sweep = Sweeper.INSTANCE.scheduleWithFixedDelay(this::evictIdle, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the directory holding these configurations.
+     *
+     * @return the directory
+     * @since 3.0.0
+     */
+    public Path directory() {
+        return this.directory;
+    }
+
+    /**
+     * Get the format configurations in this directory are stored in.
+     *
+     * @return the format
+     * @since 3.0.0
+     */
+    public ConfigurationFormat format() {
+        return this.format;
+    }
+
+    /**
+     * Get the file holding the configuration for a key.
+     *
+     * <p>The file does not have to exist.</p>
+     *
+     * @param key the key
+     * @return the file for the key
+     * @throws IllegalArgumentException if the key does not name a file
+     *     directly within this directory
+     * @since 3.0.0
+     */
+    public Path file(final String key) {
+        final Path file = this.directory.resolve(key + "." + this.format.extension()).normalize();
+        if (key.isEmpty() || !this.directory.equals(file.getParent())) {
+            throw new IllegalArgumentException("Key '" + key + "' does not name a file in " + this.directory);
+        }
+        return file;
+    }
+
+    /**
+     * Get the configuration for a key, loading it if necessary.
+     *
+     * <p>If the file does not exist yet, an empty configuration is returned,
+     * which will create the file when saved.</p>
+     *
+     * @param key the key
+     * @return a loaded reference
+     * @throws ConfigurateException if the configuration failed to load
+     * @throws IllegalArgumentException if the key does not name a file
+     *     directly within this directory
+     * @since 3.0.0
+     */
+    public ConfigurationReference<CommentedConfigurationNode> get(final String key) throws ConfigurateException {
+        // touched under the key's lock, so the sweeper never evicts an entry as it is returned
+        final @Nullable Entry existing = this.loaded.computeIfPresent(key, (k, entry) -> entry.touch());
+        if (existing != null) {
+            return existing.reference;
+        }
+
+        // load outside of the map, so slow loads never block other keys
+        final ManagedLoader loader = Confabricate.managedLoader(this.file(key), this.options, this.defaults);
+        final Entry created = new Entry(loader, ConfigurationReference.fixed(loader), this.owner);
+        final Entry winner = this.loaded.compute(key, (k, raced) -> raced == null ? created : raced.touch());
+        if (winner != created) {
+            created.close();
+        }
+        return winner.reference;
+    }
+
+    /**
+     * Get the configuration for a key only if it is currently loaded.
+     *
+     * <p>This does not count as using the configuration, so will not delay
+     * it being unloaded.</p>
+     *
+     * @param key the key
+     * @return the loaded reference, or {@code null} if not loaded
+     * @since 3.0.0
+     */
+    public @Nullable ConfigurationReference<CommentedConfigurationNode> getIfLoaded(final String key) {
+        final @Nullable Entry existing = this.loaded.get(key);
+        return existing == null ? null : existing.reference;
+    }
+
+    /**
+     * Get the keys of every configuration file currently in the directory.
+     *
+     * <p>This lists the directory, and does not load any files.</p>
+     *
+     * @return the keys on disk, in sorted order
+     * @throws ConfigurateException if the directory could not be listed
+     * @since 3.0.0
+     */
+    public Set<String> keys() throws ConfigurateException {
+        final Set<String> keys = new TreeSet<>();
+        try (Stream<Path> files = Files.list(this.directory)) {
+            for (final Path file : (Iterable<Path>) files::iterator) {
+                final @Nullable String key = this.keyOf(file.getFileName());
+                if (key != null && Files.isRegularFile(file)) {
+                    keys.add(key);
+                }
+            }
+        } catch (final IOException ex) {
+            throw new ConfigurateException(ex);
+        }
+        return keys;
+    }
+
+    /**
+     * Get the keys of every configuration currently loaded.
+     *
+     * @return a snapshot of the loaded keys
+     * @since 3.0.0
+     */
+    public Set<String> loadedKeys() {
+        return Set.copyOf(this.loaded.keySet());
+    }
+
+    /**
+     * Unload the configuration for a key, if it is loaded.
+     *
+     * <p>Unsaved changes are discarded.</p>
+     *
+     * @param key the key
+     * @since 3.0.0
+     */
+    public void unload(final String key) {
+        final @Nullable Entry removed = this.loaded.remove(key);
+        if (removed != null) {
+            removed.close();
+        }
+    }
+
+    /**
+     * Stop watching the directory, and unload every configuration.
+     *
+     * @since 3.0.0
+     */
+    @Override
+    public void close() {
+        this.subscription.dispose();
+        this.sweep.cancel(false);
+        for (final String key : this.loaded.keySet()) {
+            this.unload(key);
+        }
+    }
+
+    private @Nullable String keyOf(final Path fileName) {
+        final String name = fileName.toString();
+        final String suffix = "." + this.format.extension();
+        if (name.length() <= suffix.length() || !name.endsWith(suffix)) {
+            return null;
+        }
+        return name.substring(0, name.length() - suffix.length());
+    }
+
+    private void changed(final WatchEvent<?> event) {
+        if (!(event.context() instanceof Path name)) {
+            // events may have been lost, so check everything that is loaded
+            for (final Entry entry : this.loaded.values()) {
+                entry.debouncer.submit(event);
+            }
+            return;
+        }
+
+        final @Nullable String key = this.keyOf(name);
+        final @Nullable Entry entry = key == null ? null : this.loaded.get(key);
+        if (entry != null) {
+            entry.debouncer.submit(event);
+        }
+    }
+
+    private void evictIdle() {
+        final long now = System.nanoTime();
+        final List<Entry> evicted = new ArrayList<>();
+        for (final String key : this.loaded.keySet()) {
+            // checked under the key's lock, so a concurrent get either touches the entry first or loads a new one
+            this.loaded.computeIfPresent(key, (k, entry) -> {
+                if (now - entry.lastAccess > this.idleNanos) {
+                    evicted.add(entry);
+                    return null;
+                }
+                return entry;
+            });
+        }
+        for (final Entry entry : evicted) {
+            entry.close();
+            Confabricate.LOGGER.debug("Unloaded idle configuration {}", entry.loader.file());
+        }
+    }
+
+    /**
+     * A loaded configuration file.
+     */
+    private static final class Entry {
+
+        final ManagedLoader loader;
+        final ConfigurationReference<CommentedConfigurationNode> reference;
+        final ReloadDebouncer debouncer;
+        volatile long lastAccess = System.nanoTime();
+
+        Entry(final ManagedLoader loader, final ConfigurationReference<CommentedConfigurationNode> reference, final @Nullable String owner) {
+            this.loader = loader;
+            this.reference = reference;
+            this.debouncer = new ReloadDebouncer(loader.file(), owner, () -> {
+                if (!loader.unchangedOnDisk()) {
+                    loader.reload(reference);
+                }
+            });
+        }
+
+        Entry touch() {
+            this.lastAccess = System.nanoTime();
+            return this;
+        }
+
+        /**
+         * Close the reference, cancelling any reload still waiting to run.
+         */
+        void close() {
+            this.debouncer.close();
+            this.reference.close();
+        }
+
+    }
+
+    /**
+     * One thread unloading idle files for every directory.
+     */
+    private static final class Sweeper {
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "Confabricate directory sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+}
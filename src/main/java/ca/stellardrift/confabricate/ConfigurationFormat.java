@@ -0,0 +1,219 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Locale;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.Tag;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.CommentedConfigurationNode;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.ConfigurationOptions;
+import org.spongepowered.configurate.gson.GsonConfigurationLoader;
+import org.spongepowered.configurate.hocon.HoconConfigurationLoader;
+import org.spongepowered.configurate.loader.AbstractConfigurationLoader;
+
+/**
+ * File formats that configurations managed by Confabricate can be stored in.
+ *
+ * <p>Every format produces {@link CommentedConfigurationNode commented nodes}
+ * and works with Confabricate's serializers and file watching, but only
+ * HOCON preserves comments when saving. JSON and NBT are considerably
+ * faster to parse, and are better suited to large, data-like
+ * configurations.</p>
+ *
+ * @since 3.0.0
+ */
+public enum ConfigurationFormat {
+
+    /**
+     * <a href="https://github.com/lightbend/config/blob/main/HOCON.md">HOCON</a>,
+     * the default format.
+     *
+     * @since 3.0.0
+     */
+    HOCON("conf") {
+        @Override
+        CommentedConfigurationNode read(final byte[] contents, final ConfigurationOptions options) throws ConfigurateException {
+            return HoconConfigurationLoader.builder()
+                .source(() -> new BufferedReader(new StringReader(new String(contents, StandardCharsets.UTF_8))))
+                .defaultOptions(options)
+                .build()
+                .load(options);
+        }
+
+        @Override
+        byte[] write(final ConfigurationNode node) throws ConfigurateException {
+            return render(HoconConfigurationLoader.builder(), node);
+        }
+    },
+
+    /**
+     * JSON, read and written with Gson.
+     *
+     * @since 3.0.0
+     */
+    JSON("json") {
+        @Override
+        CommentedConfigurationNode read(final byte[] contents, final ConfigurationOptions options) throws ConfigurateException {
+            final CommentedConfigurationNode node = this.createNode(options);
+            JsonNodeReader.read(new InputStreamReader(new ByteArrayInputStream(contents), StandardCharsets.UTF_8), node);
+            return node;
+        }
+
+        @Override
+        byte[] write(final ConfigurationNode node) throws ConfigurateException {
+            return render(GsonConfigurationLoader.builder(), node);
+        }
+    },
+
+    /**
+     * Compressed binary NBT, holding a single compound tag.
+     *
+     * @since 3.0.0
+     */
+    NBT("nbt") {
+        @Override
+        CommentedConfigurationNode createNode(final ConfigurationOptions options) {
+            return CommentedConfigurationNode.root(NbtNodeAdapter.nbtOptions(options));
+        }
+
+        @Override
+        CommentedConfigurationNode read(final byte[] contents, final ConfigurationOptions options) throws ConfigurateException {
+            final CommentedConfigurationNode node = this.createNode(options);
+            try {
+                NbtNodeAdapter.tagToNode(NbtIo.readCompressed(new ByteArrayInputStream(contents)), node);
+            } catch (final IOException ex) {
+                throw new ConfigurateException(ex);
+            }
+            return node;
+        }
+
+        @Override
+        byte[] write(final ConfigurationNode node) throws ConfigurateException {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                final Tag tag = NbtNodeAdapter.nodeToTag(node);
+                if (!(tag instanceof CompoundTag compound)) {
+                    throw new ConfigurateException(node, "NBT configurations must hold a compound tag at their root");
+                }
+                NbtIo.writeCompressed(compound, out);
+            } catch (final ConfigurateException ex) {
+                throw ex;
+            } catch (final IOException ex) {
+                throw new ConfigurateException(node, ex);
+            }
+            return out.toByteArray();
+        }
+    };
+
+    private final String extension;
+
+    ConfigurationFormat(final String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Get the file extension used for this format, without a leading dot.
+     *
+     * @return the file extension
+     * @since 3.0.0
+     */
+    public String extension() {
+        return this.extension;
+    }
+
+    /**
+     * Get the format of a file, based on its extension.
+     *
+     * @param file the file
+     * @return the format, or {@code null} if the extension is not recognized
+     * @since 3.0.0
+     */
+    public static @Nullable ConfigurationFormat forFile(final Path file) {
+        final String name = file.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        if (dot == -1) {
+            return null;
+        }
+        final String extension = name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        for (final ConfigurationFormat format : values()) {
+            if (format.extension.equals(extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Create an empty node suited to this format.
+     *
+     * @param options options for the node
+     * @return a new node
+     */
+    CommentedConfigurationNode createNode(final ConfigurationOptions options) {
+        return CommentedConfigurationNode.root(options);
+    }
+
+    /**
+     * Parse file contents.
+     *
+     * @param contents the contents of a file
+     * @param options options for the loaded node
+     * @return the parsed node
+     * @throws ConfigurateException if the contents could not be parsed
+     */
+    abstract CommentedConfigurationNode read(byte[] contents, ConfigurationOptions options) throws ConfigurateException;
+
+    /**
+     * Render a node to file contents.
+     *
+     * @param node the node to render
+     * @return the file contents
+     * @throws ConfigurateException if the node could not be rendered
+     */
+    abstract byte[] write(ConfigurationNode node) throws ConfigurateException;
+
+    /**
+     * Render a node as text with a loader writing to memory.
+     *
+     * @param builder a builder for the loader
+     * @param node the node to render
+     * @return the rendered text
+     * @throws ConfigurateException if the node could not be rendered
+     */
+    private static byte[] render(final AbstractConfigurationLoader.Builder<?, ?> builder, final ConfigurationNode node) throws ConfigurateException {
+        final StringWriter writer = new StringWriter();
+        builder.sink(() -> new BufferedWriter(writer))
+            .defaultOptions(node.options())
+            .build()
+            .save(node);
+        return writer.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+}
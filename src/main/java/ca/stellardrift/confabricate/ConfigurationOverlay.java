@@ -0,0 +1,323 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.leangen.geantyref.TypeToken;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.NodePath;
+import org.spongepowered.configurate.reactive.Disposable;
+import org.spongepowered.configurate.reference.ConfigurationReference;
+import org.spongepowered.configurate.serialize.SerializationException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A read-through view over several configuration references, where later
+ * layers override earlier ones.
+ *
+ * <p>Layers are ordered from lowest to highest priority, such as a global
+ * configuration followed by per-world and per-dimension overrides. Each
+ * path resolves to the node at that path in the highest-priority layer
+ * where it is present. When that node is a map and lower layers also hold
+ * maps at the path, the maps are merged: each key takes its value from the
+ * highest-priority layer holding it, recursively, so reading a whole
+ * section sees keys from every layer. Lists and scalar values are never
+ * merged.</p>
+ *
+ * <p>Unmerged nodes are the layer's own node, and merged nodes are
+ * detached copies. Either way, resolved nodes should not be modified.</p>
+ *
+ * <p>Resolved nodes, and values deserialized from them, are cached for
+ * the most recently resolved paths. When a layer reloads, only paths
+ * whose resolution it could affect are resolved again: those resolved
+ * to a map, which any layer may add keys to, those resolved from that
+ * layer or from a lower priority layer, and those not present in any
+ * layer. Paths resolved to a list or scalar value from a higher priority
+ * layer keep their cached results.</p>
+ *
+ * <p>Reloads are detected through each reference's
+ * {@link ConfigurationReference#updates() updates}. After modifying a
+ * layer's nodes directly, call {@link #invalidate()}.</p>
+ *
+ * @since 3.0.0
+ */
+public final class ConfigurationOverlay implements AutoCloseable {
+
+    private static final int CACHE_SIZE = 512;
+
+    private final List<ConfigurationReference<?>> layers;
+    // incremented whenever a layer changes
+    private final AtomicLongArray epochs;
+    private final Cache<NodePath, Resolved> resolved = CacheBuilder.newBuilder()
+        .maximumSize(CACHE_SIZE)
+        .build();
+    private final List<Disposable> subscriptions = new ArrayList<>();
+
+    /**
+     * Create an overlay of the provided layers.
+     *
+     * @param layers the layers, from lowest to highest priority
+     * @return a new overlay
+     * @since 3.0.0
+     */
+    public static ConfigurationOverlay of(final ConfigurationReference<?>... layers) {
+        return of(List.of(layers));
+    }
+
+    /**
+     * Create an overlay of the provided layers.
+     *
+     * @param layers the layers, from lowest to highest priority
+     * @return a new overlay
+     * @since 3.0.0
+     */
+    public static ConfigurationOverlay of(final List<? extends ConfigurationReference<?>> layers) {
+        if (layers.isEmpty()) {
+            throw new IllegalArgumentException("An overlay must have at least one layer");
+        }
+        return new ConfigurationOverlay(List.copyOf(layers));
+    }
+
+    private ConfigurationOverlay(final List<ConfigurationReference<?>> layers) {
+        this.layers = layers;
+        this.epochs = new AtomicLongArray(layers.size());
+        for (int i = 0; i < layers.size(); i++) {
+            final int layer = i;
+            this.subscriptions.add(layers.get(i).updates().subscribe(node -> this.epochs.incrementAndGet(layer)));
+        }
+    }
+
+    /**
+     * Get the layers of this overlay.
+     *
+     * @return the layers, from lowest to highest priority
+     * @since 3.0.0
+     */
+    public List<ConfigurationReference<?>> layers() {
+        return this.layers;
+    }
+
+    /**
+     * Resolve the node at a path.
+     *
+     * @param path the path to resolve
+     * @return the node from the highest-priority layer holding the path,
+     *     merged with lower layers if it is a map, or a virtual node if no
+     *     layer holds it
+     * @since 3.0.0
+     */
+    public ConfigurationNode node(final Object... path) {
+        return this.resolve(NodePath.of(path)).node;
+    }
+
+    /**
+     * Resolve the node at a path.
+     *
+     * @param path the path to resolve
+     * @return the node from the highest-priority layer holding the path,
+     *     merged with lower layers if it is a map, or a virtual node if no
+     *     layer holds it
+     * @since 3.0.0
+     */
+    public ConfigurationNode node(final NodePath path) {
+        return this.resolve(path).node;
+    }
+
+    /**
+     * Get the index of the layer a path resolves to.
+     *
+     * @param path the path to resolve
+     * @return the index of the highest-priority layer holding the path, or
+     *     {@code -1} if no layer holds it
+     * @since 3.0.0
+     */
+    public int layerOf(final NodePath path) {
+        return this.resolve(path).layer;
+    }
+
+    /**
+     * Resolve and deserialize the value at a path.
+     *
+     * <p>The deserialized value is cached along with the resolved node, and
+     * shared between callers until the path is resolved again, so it must
+     * not be modified.</p>
+     *
+     * @param type the type of value
+     * @param path the path to resolve
+     * @param <V> value type
+     * @return the value, or {@code null} if no layer holds the path
+     * @throws SerializationException if the value could not be deserialized
+     * @since 3.0.0
+     */
+    @SuppressWarnings("unchecked")
+    public <V> @Nullable V get(final TypeToken<V> type, final Object... path) throws SerializationException {
+        final Resolved resolved = this.resolve(NodePath.of(path));
+        final @Nullable Object existing = resolved.values.get(type.getType());
+        if (existing != null) {
+            return (V) existing;
+        }
+        final @Nullable V value = resolved.node.get(type);
+        if (value != null) {
+            resolved.values.putIfAbsent(type.getType(), value);
+        }
+        return value;
+    }
+
+    /**
+     * Resolve and deserialize the value at a path.
+     *
+     * @param type the type of value
+     * @param path the path to resolve
+     * @param <V> value type
+     * @return the value, or {@code null} if no layer holds the path
+     * @throws SerializationException if the value could not be deserialized
+     * @see #get(TypeToken, Object...)
+     * @since 3.0.0
+     */
+    public <V> @Nullable V get(final Class<V> type, final Object... path) throws SerializationException {
+        return this.get(TypeToken.get(type), path);
+    }
+
+    /**
+     * Get the keys of the map children at a path in every layer.
+     *
+     * <p>This is not cached, and visits the path in each layer.</p>
+     *
+     * @param path the path of a map node
+     * @return the keys present in any layer, in layer order
+     * @since 3.0.0
+     */
+    public Set<Object> childKeys(final Object... path) {
+        final Set<Object> keys = new LinkedHashSet<>();
+        for (final ConfigurationReference<?> layer : this.layers) {
+            keys.addAll(layer.node().node(path).childrenMap().keySet());
+        }
+        return keys;
+    }
+
+    /**
+     * Discard every cached resolution.
+     *
+     * <p>This must be called after modifying a layer's nodes directly,
+     * rather than by reloading it.</p>
+     *
+     * @since 3.0.0
+     */
+    public void invalidate() {
+        for (int i = 0; i < this.epochs.length(); i++) {
+            this.epochs.incrementAndGet(i);
+        }
+    }
+
+    /**
+     * Stop tracking changes to the layers.
+     *
+     * @since 3.0.0
+     */
+    @Override
+    public void close() {
+        for (final Disposable subscription : this.subscriptions) {
+            subscription.dispose();
+        }
+    }
+
+    private Resolved resolve(final NodePath path) {
+        final @Nullable Resolved existing = this.resolved.getIfPresent(path);
+        if (existing != null && existing.current(this.epochs)) {
+            return existing;
+        }
+
+        // capture epochs before reading, so a concurrent reload is never missed
+        final long[] epochs = new long[this.epochs.length()];
+        for (int i = 0; i < epochs.length; i++) {
+            epochs[i] = this.epochs.get(i);
+        }
+        for (int i = this.layers.size() - 1; i >= 0; i--) {
+            final ConfigurationNode node = this.layers.get(i).node().node(path);
+            if (!node.virtual()) {
+                return this.cache(path, this.merge(i, node, path, epochs));
+            }
+        }
+        final ConfigurationNode top = this.layers.get(this.layers.size() - 1).node().node(path);
+        return this.cache(path, new Resolved(-1, top, epochs));
+    }
+
+    private Resolved merge(final int layer, final ConfigurationNode node, final NodePath path, final long[] epochs) {
+        if (!node.isMap()) {
+            return new Resolved(layer, node, epochs);
+        }
+
+        @Nullable ConfigurationNode merged = null;
+        for (int i = layer - 1; i >= 0; i--) {
+            final ConfigurationNode lower = this.layers.get(i).node().node(path);
+            if (lower.isMap()) {
+                if (merged == null) {
+                    merged = node.copy();
+                }
+                // only fills in keys missing from higher layers
+                merged.mergeFrom(lower);
+            }
+        }
+        return new Resolved(layer, merged == null ? node : merged, epochs);
+    }
+
+    private Resolved cache(final NodePath path, final Resolved resolved) {
+        this.resolved.put(path, resolved);
+        return resolved;
+    }
+
+    /**
+     * A path's resolution, with the layer epochs it was resolved at.
+     */
+    private static final class Resolved {
+
+        final int layer;
+        final boolean map;
+        final ConfigurationNode node;
+        final long[] epochs;
+        final Map<Type, Object> values = new ConcurrentHashMap<>();
+
+        Resolved(final int layer, final ConfigurationNode node, final long[] epochs) {
+            this.layer = layer;
+            this.map = node.isMap();
+            this.node = requireNonNull(node, "node");
+            this.epochs = epochs;
+        }
+
+        boolean current(final AtomicLongArray epochs) {
+            // any layer can add keys to a map, but only this layer and those above it can replace other values
+            for (int i = this.map ? 0 : Math.max(this.layer, 0); i < this.epochs.length; i++) {
+                if (this.epochs[i] != epochs.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
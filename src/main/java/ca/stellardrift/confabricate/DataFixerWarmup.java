@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import com.mojang.datafixers.DSL;
+import com.mojang.datafixers.DataFixer;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.spongepowered.configurate.BasicConfigurationNode;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.extra.dfu.v4.ConfigurateOps;
+import org.spongepowered.configurate.transformation.ConfigurationTransformation;
+
+/**
+ * Prepares {@link DataFixer} rules for declared types on a background
+ * thread.
+ *
+ * <p>DFU optimizes the rewrite rules for a type and version range the first
+ * time a value is upgraded across that range, which can take a noticeable
+ * amount of time. Upgrading an empty value across the same range ahead of
+ * time means the first real upgrade does not pay that cost, but only for
+ * exactly that range: warming one range does nothing for values stored at
+ * any other version.</p>
+ *
+ * <p>Types are declared together with the version their values are
+ * upgraded from. Declarations made automatically by transformations use
+ * {@link ConfigurationTransformation.Versioned#VERSION_UNKNOWN}, the version
+ * of configurations without a stored version such as newly created ones.
+ * Existing configurations are only helped when the version they were saved
+ * at is declared explicitly.</p>
+ *
+ * <p>Warm-up is opt-in, enabled by setting the
+ * {@code confabricate.warmUpDataFixer} system property to {@code true}.
+ * Once Confabricate has initialized, every type declared so far, and every
+ * type declared afterwards, is warmed up.</p>
+ */
+final class DataFixerWarmup {
+
+    /**
+     * System property enabling warm-up.
+     */
+    static final String ENABLED_PROPERTY = "confabricate.warmUpDataFixer";
+    static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    private static final Object LOCK = new Object();
+    @GuardedBy("LOCK")
+    private static final Set<Declared> DECLARED = new LinkedHashSet<>();
+    @GuardedBy("LOCK")
+    private static boolean started;
+
+    private DataFixerWarmup() {
+    }
+
+    /**
+     * Declare a type that will be upgraded by a fixer from an unknown
+     * version, as newly created configurations are.
+     *
+     * @param fixer the fixer
+     * @param type the type of upgraded values
+     * @param targetVersion the version values will be upgraded to
+     */
+    static void declare(final DataFixer fixer, final DSL.TypeReference type, final int targetVersion) {
+        declare(fixer, type, ConfigurationTransformation.Versioned.VERSION_UNKNOWN, targetVersion);
+    }
+
+    /**
+     * Declare a type that will be upgraded by a fixer across a version range.
+     *
+     * @param fixer the fixer
+     * @param type the type of upgraded values
+     * @param sourceVersion the version values will be upgraded from
+     * @param targetVersion the version values will be upgraded to
+     */
+    static void declare(final DataFixer fixer, final DSL.TypeReference type, final int sourceVersion, final int targetVersion) {
+        if (!ENABLED || sourceVersion >= targetVersion && sourceVersion != ConfigurationTransformation.Versioned.VERSION_UNKNOWN) {
+            return;
+        }
+        final Declared declared = new Declared(fixer, type, sourceVersion, targetVersion);
+        synchronized (LOCK) {
+            if (DECLARED.add(declared) && started) {
+                WarmupThread.INSTANCE.execute(declared::warmUp);
+            }
+        }
+    }
+
+    /**
+     * Begin warming up every declared type, if enabled.
+     */
+    static void start() {
+        if (!ENABLED) {
+            return;
+        }
+        synchronized (LOCK) {
+            if (started) {
+                return;
+            }
+            started = true;
+            for (final Declared declared : DECLARED) {
+                WarmupThread.INSTANCE.execute(declared::warmUp);
+            }
+        }
+    }
+
+    private record Declared(DataFixer fixer, DSL.TypeReference type, int sourceVersion, int targetVersion) {
+
+        void warmUp() {
+            try {
+                final long start = System.nanoTime();
+                final ConfigurationNode empty = BasicConfigurationNode.root().raw(Map.of());
+                this.fixer.update(this.type, ConfigurateOps.wrap(empty), this.sourceVersion, this.targetVersion);
+                Confabricate.LOGGER.debug("Warmed up DataFixer rules for {} from version {} to {} in {} ms",
+                    this.type.typeName(), this.sourceVersion, this.targetVersion, (System.nanoTime() - start) / 1_000_000);
+            } catch (final RuntimeException ex) {
+                Confabricate.LOGGER.debug("Failed to warm up DataFixer rules for {}", this.type.typeName(), ex);
+            }
+        }
+
+    }
+
+    /**
+     * A single background thread, so warm-up never competes with more than
+     * one core of startup work.
+     */
+    private static final class WarmupThread {
+        static final ExecutorService INSTANCE = Executors.newSingleThreadExecutor(task -> {
+            final Thread thread = new Thread(task, "Confabricate DataFixer warm-up");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+}
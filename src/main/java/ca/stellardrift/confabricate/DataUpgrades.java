@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.mojang.datafixers.DSL;
+import com.mojang.datafixers.DataFixer;
+import com.mojang.serialization.Dynamic;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.extra.dfu.v4.ConfigurateOps;
+import org.spongepowered.configurate.serialize.SerializationException;
+
+/**
+ * Applies {@link DataFixer DataFixers} to nodes, remembering recent results.
+ *
+ * <p>A file that is not re-saved after an upgrade stays at its old version,
+ * so it is upgraded again every time it is loaded. Upgrades are keyed by
+ * the input node and version range, so repeated loads of the same stale
+ * value reuse the earlier result instead of running the fixer again.</p>
+ *
+ * <p>Results are kept as whole nodes, so comments carried through by the
+ * fixer are kept too. Since an upgrade may cover a whole configuration,
+ * the cache is bounded by the number of nodes it holds rather than by its
+ * number of entries.</p>
+ */
+final class DataUpgrades {
+
+    // the most nodes held by cached inputs and results together
+    private static final long CACHE_WEIGHT = 1 << 16;
+
+    private static final Cache<Key, ConfigurationNode> CACHE = CacheBuilder.newBuilder()
+        .maximumWeight(CACHE_WEIGHT)
+        .weigher(DataUpgrades::weigh)
+        .recordStats()
+        .build();
+
+    private DataUpgrades() {
+    }
+
+    private static int weigh(final Key key, final ConfigurationNode result) {
+        return (int) Math.min(Integer.MAX_VALUE, NodeReconciler.count(key.input()) + NodeReconciler.count(result));
+    }
+
+    static CacheStats stats() {
+        return CACHE.stats();
+    }
+
+    /**
+     * Upgrade the value of a node in place.
+     *
+     * <p>Nodes already at or beyond the target version are left untouched,
+     * just as the fixer itself would leave them.</p>
+     *
+     * @param fixer the fixer to apply
+     * @param reference the type of the node's value
+     * @param node the node to upgrade
+     * @param currentVersion the version of the node's value
+     * @param targetVersion the version to upgrade to
+     * @throws SerializationException if the upgraded node could not be applied
+     */
+    static void upgrade(
+        final DataFixer fixer,
+        final DSL.TypeReference reference,
+        final ConfigurationNode node,
+        final int currentVersion,
+        final int targetVersion
+    ) throws SerializationException {
+        if (currentVersion < targetVersion) {
+            node.set(upgraded(fixer, reference, node, currentVersion, targetVersion));
+        }
+    }
+
+    /**
+     * Compute the upgraded value of a node, without modifying the node.
+     *
+     * <p>This only reads from the node, so it may be called for several
+     * nodes of one tree at once, as long as nothing writes to the tree
+     * meanwhile. The result may be shared with other callers, so must not
+     * be modified; apply it with {@link ConfigurationNode#set(Object)},
+     * which copies it.</p>
+     *
+     * @param fixer the fixer to apply
+     * @param reference the type of the node's value
+     * @param node the node to upgrade
+     * @param currentVersion the version of the node's value
+     * @param targetVersion the version to upgrade to
+     * @return the upgraded node, or the provided node if it is already at
+     *     or beyond the target version
+     */
+    static ConfigurationNode upgraded(
+        final DataFixer fixer,
+        final DSL.TypeReference reference,
+        final ConfigurationNode node,
+        final int currentVersion,
+        final int targetVersion
+    ) {
+        if (currentVersion >= targetVersion) {
+            return node;
+        }
+
+        final Key key = new Key(fixer, reference.typeName(), currentVersion, targetVersion, node.copy());
+        final @Nullable ConfigurationNode cached = CACHE.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final Dynamic<ConfigurationNode> dyn = ConfigurateOps.wrap(node);
+        final ConfigurationNode result = fixer.update(reference, dyn, currentVersion, targetVersion).getValue().copy();
+        CACHE.put(key, result);
+        return result;
+    }
+
+    /**
+     * A single upgrade.
+     *
+     * <p>The input is a detached copy of the upgraded node, compared by its
+     * values and comments, so it can be safely retained after the node
+     * changes.</p>
+     */
+    private record Key(DataFixer fixer, String type, int from, int to, ConfigurationNode input) {}
+
+}
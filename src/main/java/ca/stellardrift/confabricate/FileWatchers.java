@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.reactive.Disposable;
+import org.spongepowered.configurate.reactive.Subscriber;
+import org.spongepowered.configurate.reference.WatchServiceListener;
+
+/**
+ * Chooses how each watched path is watched.
+ *
+ * <p>Paths are watched by the shared {@link Confabricate#fileWatcher() watch
+ * service} where possible, and otherwise by the {@link PollingWatcher}:</p>
+ * <ul>
+ *     <li>when the watch service failed to initialize</li>
+ *     <li>when the path could not be registered with the watch service</li>
+ *     <li>when the path is on a network or virtualized file system, such as
+ *     NFS, SMB, FUSE or a container runtime's host bind mount, where changes
+ *     made elsewhere are not reported</li>
+ * </ul>
+ *
+ * <p>The {@code confabricate.fileWatcher} system property can instead be set
+ * to {@code native} to always use the watch service, or to {@code polling}
+ * to always poll.</p>
+ */
+final class FileWatchers {
+
+    static final String MODE_PROPERTY = "confabricate.fileWatcher";
+    static final Mode MODE = Mode.fromProperty(System.getProperty(MODE_PROPERTY, "auto"));
+
+    /**
+     * File system types known not to report changes to a watch service.
+     */
+    private static final Set<String> UNWATCHABLE_TYPES = Set.of(
+        "9p", "afs", "ceph", "cifs", "davfs", "fakeowner", "glusterfs", "ncpfs", "smb", "smb2", "smbfs", "vboxsf", "virtiofs"
+    );
+    private static final Set<String> REPORTED_STORES = ConcurrentHashMap.newKeySet();
+
+    private FileWatchers() {
+    }
+
+    /**
+     * Watch a single file.
+     *
+     * @param file the file to watch
+     * @param subscriber the subscriber to notify of changes
+     * @return a handle to stop watching
+     * @throws ConfigurateException if the file could not be watched
+     */
+    static Disposable listenToFile(final Path file, final Subscriber<WatchEvent<?>> subscriber) throws ConfigurateException {
+        final @Nullable WatchServiceListener watcher = nativeWatcher(file.toAbsolutePath().getParent());
+        if (watcher != null) {
+            try {
+                return watcher.listenToFile(file, subscriber);
+            } catch (final ConfigurateException ex) {
+                if (MODE == Mode.NATIVE) {
+                    throw ex;
+                }
+                Confabricate.LOGGER.warn("Could not watch {} for changes, polling it instead", file, ex);
+            }
+        }
+        return PollingWatcher.INSTANCE.listenToFile(file, subscriber);
+    }
+
+    /**
+     * Watch the files directly within a directory.
+     *
+     * @param directory the directory to watch
+     * @param subscriber the subscriber to notify of changes
+     * @return a handle to stop watching
+     * @throws ConfigurateException if the directory could not be watched
+     */
+    static Disposable listenToDirectory(final Path directory, final Subscriber<WatchEvent<?>> subscriber) throws ConfigurateException {
+        final @Nullable WatchServiceListener watcher = nativeWatcher(directory);
+        if (watcher != null) {
+            try {
+                return watcher.listenToDirectory(directory, subscriber);
+            } catch (final ConfigurateException ex) {
+                if (MODE == Mode.NATIVE) {
+                    throw ex;
+                }
+                Confabricate.LOGGER.warn("Could not watch {} for changes, polling it instead", directory, ex);
+            }
+        }
+        return PollingWatcher.INSTANCE.listenToDirectory(directory, subscriber);
+    }
+
+    private static @Nullable WatchServiceListener nativeWatcher(final @Nullable Path directory) throws ConfigurateException {
+        if (MODE == Mode.POLLING) {
+            return null;
+        }
+        final @Nullable WatchServiceListener watcher = Confabricate.nativeWatcher();
+        if (watcher == null) {
+            if (MODE == Mode.NATIVE) {
+                throw new ConfigurateException("Configurate file watcher failed to initialize, check log for earlier errors");
+            }
+            return null;
+        }
+        if (MODE == Mode.AUTO && directory != null && !reportsChanges(directory)) {
+            return null;
+        }
+        return watcher;
+    }
+
+    private static boolean reportsChanges(final Path directory) {
+        Path existing = directory;
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        if (existing == null) {
+            return true;
+        }
+
+        final String type;
+        try {
+            type = Files.getFileStore(existing).type().toLowerCase(Locale.ROOT);
+        } catch (final IOException ex) {
+            return true;
+        }
+        if (UNWATCHABLE_TYPES.contains(type) || type.startsWith("nfs") || type.startsWith("fuse")) {
+            if (REPORTED_STORES.add(type)) {
+                Confabricate.LOGGER.info("Polling for changes to configuration files on {} file systems, which may not report changes", type);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * How paths are watched.
+     */
+    enum Mode {
+        /**
+         * Use the watch service unless it is unavailable or unreliable.
+         */
+        AUTO,
+        /**
+         * Always use the watch service.
+         */
+        NATIVE,
+        /**
+         * Always poll.
+         */
+        POLLING;
+
+        static Mode fromProperty(final String value) {
+            try {
+                return Mode.valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (final IllegalArgumentException ex) {
+                Confabricate.LOGGER.warn("Unknown value '{}' for {}, using 'auto'", value, MODE_PROPERTY);
+                return AUTO;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Map;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.ConfigurationNode;
+
+/**
+ * Reads JSON directly into a node of any type.
+ *
+ * <p>Gson's configuration loader can only create basic nodes, so reading
+ * through it would need a second copy of every file into the commented
+ * nodes Confabricate hands out. Numbers and leniency follow that
+ * loader.</p>
+ */
+final class JsonNodeReader {
+
+    private JsonNodeReader() {
+    }
+
+    /**
+     * Read a JSON document into a node.
+     *
+     * <p>An empty document leaves the node empty.</p>
+     *
+     * @param source the document
+     * @param node the node to populate
+     * @throws ConfigurateException if the document is not valid JSON
+     */
+    static void read(final Reader source, final ConfigurationNode node) throws ConfigurateException {
+        try (JsonReader reader = new JsonReader(source)) {
+            reader.setLenient(true);
+            if (reader.peek() == JsonToken.END_DOCUMENT) {
+                return;
+            }
+            readValue(reader, node);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new ConfigurateException(node, "Expected end of document: " + reader);
+            }
+        } catch (final ConfigurateException ex) {
+            throw ex;
+        } catch (final IOException ex) {
+            throw new ConfigurateException(node, ex);
+        }
+    }
+
+    private static void readValue(final JsonReader reader, final ConfigurationNode node) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT -> {
+                reader.beginObject();
+                node.raw(Map.of());
+                while (reader.hasNext()) {
+                    readValue(reader, node.node(reader.nextName()));
+                }
+                reader.endObject();
+            }
+            case BEGIN_ARRAY -> {
+                reader.beginArray();
+                node.raw(List.of());
+                while (reader.hasNext()) {
+                    readValue(reader, node.appendListNode());
+                }
+                reader.endArray();
+            }
+            case STRING -> node.raw(reader.nextString());
+            case NUMBER -> node.raw(readNumber(reader.nextString()));
+            case BOOLEAN -> node.raw(reader.nextBoolean());
+            case NULL -> {
+                reader.nextNull();
+                node.raw(null);
+            }
+            default -> throw new ConfigurateException(node, "Unexpected token " + reader.peek() + ": " + reader);
+        }
+    }
+
+    private static Number readNumber(final String number) {
+        if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+            try {
+                final long value = Long.parseLong(number);
+                if ((int) value == value) {
+                    return (int) value;
+                }
+                return value;
+            } catch (final NumberFormatException ex) {
+                // too large for a long, fall through
+            }
+        }
+        return Double.parseDouble(number);
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import ca.stellardrift.confabricate.typeserializers.MinecraftSerializers;
+import java.util.concurrent.CompletionException;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.minecraft.Util;
+
+/**
+ * Hooks into Fabric API's lifecycle events.
+ *
+ * <p>This class must only be loaded when the Fabric API lifecycle events
+ * module is present.</p>
+ */
+final class LifecycleHooks {
+
+    static final String LIFECYCLE_EVENTS_MOD = "fabric-lifecycle-events-v1";
+
+    private LifecycleHooks() {}
+
+    static void register() {
+        // Tags are bound by the time the server starts, and rebound on every data pack reload.
+        // Resolve holders then, so the first lookups on the server thread don't have to.
+        ServerLifecycleEvents.SERVER_STARTING.register(server -> resolveHolders());
+        ServerLifecycleEvents.END_DATA_PACK_RELOAD.register((server, resources, success) -> {
+            if (success) {
+                resolveHolders();
+            }
+        });
+    }
+
+    private static void resolveHolders() {
+        final long start = System.nanoTime();
+        try {
+            MinecraftSerializers.resolveHolders(Util.backgroundExecutor()).join();
+        } catch (final CompletionException ex) {
+            Confabricate.LOGGER.error("Failed to resolve configured holder sets", ex.getCause());
+            return;
+        }
+        Confabricate.LOGGER.debug("Resolved configured holder sets in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+}
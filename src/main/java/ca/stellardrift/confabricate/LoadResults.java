@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import java.util.Map;
+import org.spongepowered.configurate.CommentedConfigurationNode;
+import org.spongepowered.configurate.reference.ConfigurationReference;
+
+/**
+ * The outcome of loading a batch of configurations.
+ *
+ * <p>Every configuration in a batch is attempted, so a failure to load one
+ * file does not prevent others from loading.</p>
+ *
+ * @param references references for every configuration that loaded
+ * @param errors errors for every configuration that failed to load
+ * @param <K> the type identifying each configuration
+ * @since 3.0.0
+ */
+public record LoadResults<K>(
+    Map<K, ConfigurationReference<CommentedConfigurationNode>> references,
+    Map<K, Exception> errors
+) {
+
+    /**
+     * Create a new set of results.
+     *
+     * @param references references for every configuration that loaded
+     * @param errors errors for every configuration that failed to load
+     * @since 3.0.0
+     */
+    public LoadResults {
+        references = Map.copyOf(references);
+        errors = Map.copyOf(errors);
+    }
+
+    /**
+     * Get whether every configuration in the batch loaded.
+     *
+     * @return whether there were no errors
+     * @since 3.0.0
+     */
+    public boolean successful() {
+        return this.errors.isEmpty();
+    }
+
+}
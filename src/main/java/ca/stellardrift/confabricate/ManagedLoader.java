@@ -0,0 +1,390 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.CommentedConfigurationNode;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.ConfigurationOptions;
+import org.spongepowered.configurate.NodePath;
+import org.spongepowered.configurate.loader.ConfigurationLoader;
+import org.spongepowered.configurate.reference.ConfigurationReference;
+
+/**
+ * A loader for a file managed by Confabricate, in any
+ * {@link ConfigurationFormat}.
+ *
+ * <p>This tracks a checksum of the file's contents as last loaded or saved
+ * by this loader. Watch events that leave the contents unchanged (including
+ * those caused by our own saves) can be ignored, and saves that would write
+ * the same contents back to disk are skipped entirely.</p>
+ *
+ * <p>When a {@link ParseCache} is provided, unchanged files are read from
+ * the cache rather than parsed again.</p>
+ *
+ * <p>When {@link SharedDefaults} are provided, they are merged into each
+ * saved copy, but never into loaded nodes.</p>
+ *
+ * <p>When nodes are reused, each load after the first is merged into the
+ * tree returned by the previous load with {@link NodeReconciler}, and that
+ * same tree is returned again. Nodes are not reused for options that
+ * {@link ConfigurationOptions#shouldCopyDefaults() copy defaults}, since
+ * defaults copied into the tree but absent from the file would be removed
+ * and reported as changes by every reload; {@link SharedDefaults} keep
+ * defaults out of the tree instead. Every load records how many nodes it
+ * kept, created and removed, and how many bytes the loading thread
+ * allocated.</p>
+ *
+ * <p>Loads hold this loader's {@link #lock()}, so a merge into the
+ * existing tree never overlaps with another thread that holds it.
+ * Confabricate's own reloads hold it until the new tree has been
+ * published, and {@link SharedConfiguration} holds it while changing and
+ * copying the tree. Other readers of a reused tree may still see a merge
+ * in progress, so should read through a {@link SharedConfiguration}.</p>
+ *
+ * <p>Saves are performed by {@link WriteBehind}. Synchronous saves are
+ * written immediately on the calling thread, but still replace any waiting
+ * asynchronous save of the same file, so saves are always written in the
+ * order they were requested.</p>
+ */
+final class ManagedLoader implements ConfigurationLoader<CommentedConfigurationNode> {
+
+    // CRC32C values are unsigned 32-bit, so never collide with these
+    private static final long UNKNOWN = -1;
+    private static final long MISSING = -2;
+
+    private static final LongAdder SKIPPED_RELOADS = new LongAdder();
+    private static final LongAdder SKIPPED_SAVES = new LongAdder();
+    private static final LongAdder RELOADS = new LongAdder();
+    private static final LongAdder NODES_REUSED = new LongAdder();
+    private static final LongAdder NODES_CREATED = new LongAdder();
+    private static final LongAdder NODES_REMOVED = new LongAdder();
+    private static final LongAdder BYTES_ALLOCATED = new LongAdder();
+    private static final com.sun.management.@Nullable ThreadMXBean THREADS = threads();
+
+    private final Path file;
+    private final ConfigurationFormat format;
+    private final ConfigurationOptions defaultOptions;
+    private final @Nullable ParseCache cache;
+    private final @Nullable SharedDefaults defaults;
+    private final boolean reuseNodes;
+    private final Object lock = new Object();
+    private volatile long checksum = UNKNOWN;
+    private volatile @Nullable CommentedConfigurationNode current;
+    private volatile @Nullable List<NodePath> lastChanges;
+
+    ManagedLoader(
+        final Path file,
+        final ConfigurationFormat format,
+        final ConfigurationOptions defaultOptions,
+        final @Nullable ParseCache cache,
+        final @Nullable SharedDefaults defaults,
+        final boolean reuseNodes
+    ) {
+        this.file = file;
+        this.format = format;
+        this.defaultOptions = defaultOptions;
+        this.cache = cache;
+        this.defaults = defaults;
+        this.reuseNodes = reuseNodes;
+    }
+
+    private static com.sun.management.@Nullable ThreadMXBean threads() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+            && threads.isThreadAllocatedMemorySupported()
+            && threads.isThreadAllocatedMemoryEnabled()) {
+            return threads;
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        final com.sun.management.@Nullable ThreadMXBean threads = THREADS;
+        return threads == null ? -1 : threads.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Get statistics covering every load so far.
+     *
+     * @return load statistics
+     */
+    static ReloadStatistics reloadStatistics() {
+        return new ReloadStatistics(
+            RELOADS.sum(),
+            NODES_REUSED.sum(),
+            NODES_CREATED.sum(),
+            NODES_REMOVED.sum(),
+            THREADS == null ? -1 : BYTES_ALLOCATED.sum()
+        );
+    }
+
+    /**
+     * Get the number of reloads skipped because the file was unchanged.
+     *
+     * @return the number of skipped reloads
+     */
+    static long skippedReloads() {
+        return SKIPPED_RELOADS.sum();
+    }
+
+    /**
+     * Get the number of saves skipped because the file already held the
+     * saved contents.
+     *
+     * @return the number of skipped saves
+     */
+    static long skippedSaves() {
+        return SKIPPED_SAVES.sum();
+    }
+
+    /**
+     * Get the file this loader reads from and writes to.
+     *
+     * @return the managed file
+     */
+    Path file() {
+        return this.file;
+    }
+
+    /**
+     * Get the lock guarding trees loaded by this loader.
+     *
+     * <p>Loads hold it while parsing and merging, and reloads of a
+     * reference should hold it until the reloaded tree is published.</p>
+     *
+     * @return the lock
+     */
+    Object lock() {
+        return this.lock;
+    }
+
+    /**
+     * Reload a reference to this loader's file, holding this loader's
+     * {@link #lock()} until the reloaded tree has been published.
+     *
+     * @param reference the reference to reload
+     * @throws ConfigurateException if the file could not be loaded
+     */
+    void reload(final ConfigurationReference<?> reference) throws ConfigurateException {
+        synchronized (this.lock) {
+            reference.load();
+        }
+    }
+
+    /**
+     * Get whether the file on disk still has the contents this loader last
+     * loaded or saved.
+     *
+     * <p>A {@code true} result is counted as a skipped reload.</p>
+     *
+     * @return whether the file is unchanged
+     */
+    boolean unchangedOnDisk() {
+        final long known = this.checksum;
+        if (known != UNKNOWN && known == this.checksumOnDisk()) {
+            SKIPPED_RELOADS.increment();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public ConfigurationOptions defaultOptions() {
+        return this.defaultOptions;
+    }
+
+    @Override
+    public CommentedConfigurationNode load(final ConfigurationOptions options) throws ConfigurateException {
+        synchronized (this.lock) {
+            return this.loadLocked(options);
+        }
+    }
+
+    private CommentedConfigurationNode loadLocked(final ConfigurationOptions options) throws ConfigurateException {
+        final long allocatedBefore = allocatedBytes();
+        final CommentedConfigurationNode loaded = this.parse(options);
+        final @Nullable CommentedConfigurationNode current = this.current;
+        final CommentedConfigurationNode result;
+        if (this.reuseNodes && current != null && !loaded.options().shouldCopyDefaults() && current.options().equals(loaded.options())) {
+            final NodeReconciler reconciled = NodeReconciler.reconcile(current, loaded);
+            NODES_REUSED.add(reconciled.reused());
+            NODES_CREATED.add(reconciled.created());
+            NODES_REMOVED.add(reconciled.removed());
+            this.lastChanges = List.copyOf(reconciled.changed());
+            result = current;
+        } else {
+            NODES_CREATED.add(NodeReconciler.count(loaded));
+            this.lastChanges = null;
+            result = loaded;
+        }
+        if (this.reuseNodes) {
+            this.current = result;
+        }
+
+        RELOADS.increment();
+        if (allocatedBefore != -1) {
+            final long allocated = allocatedBytes() - allocatedBefore;
+            BYTES_ALLOCATED.add(allocated);
+            Confabricate.LOGGER.debug("Loaded {}{}, allocating {} bytes", this.file, result == current ? " into the existing tree" : "", allocated);
+        }
+        return result;
+    }
+
+    /**
+     * Get the paths changed by the most recent load, if it merged into the
+     * tree returned by the load before it.
+     *
+     * @return the topmost changed paths, or {@code null} if the most recent
+     *     load returned a new tree
+     */
+    @Nullable List<NodePath> lastChanges() {
+        return this.lastChanges;
+    }
+
+    private CommentedConfigurationNode parse(final ConfigurationOptions options) throws ConfigurateException {
+        final byte[] contents;
+        try {
+            contents = Files.readAllBytes(this.file);
+        } catch (final NoSuchFileException ex) {
+            this.checksum = MISSING;
+            return this.createNode(options);
+        } catch (final IOException ex) {
+            throw new ConfigurateException(ex);
+        }
+        this.checksum = checksum(contents);
+        final @Nullable ParseCache cache = this.cache != null && ParseCache.cacheable(contents) ? this.cache : null;
+        if (cache != null) {
+            final @Nullable CommentedConfigurationNode cached = cache.read(this.file, contents, this, options);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final CommentedConfigurationNode node = this.format.read(contents, options);
+        if (cache != null) {
+            cache.write(this.file, contents, node);
+        }
+        return node;
+    }
+
+    @Override
+    public ConfigurationReference<CommentedConfigurationNode> loadToReference() throws ConfigurateException {
+        return ConfigurationReference.fixed(this);
+    }
+
+    @Override
+    public void save(final ConfigurationNode node) throws ConfigurateException {
+        try {
+            WriteBehind.writeNow(this, node.copy()).join();
+        } catch (final CompletionException ex) {
+            if (ex.getCause() instanceof ConfigurateException configurate) {
+                throw configurate;
+            }
+            throw new ConfigurateException(node, ex.getCause());
+        }
+    }
+
+    /**
+     * Save a copy of the provided node on a background thread.
+     *
+     * @param node the node to save
+     * @return a future completing once the node has been written
+     * @see WriteBehind
+     */
+    CompletableFuture<Void> saveAsync(final ConfigurationNode node) {
+        return WriteBehind.submit(this, node.copy());
+    }
+
+    /**
+     * Render a node to the contents this loader would save.
+     *
+     * <p>Shared defaults are merged into the node first, so it must be a
+     * copy owned by the caller.</p>
+     *
+     * @param node the node to render
+     * @return the rendered contents, or {@code null} if the file already
+     *     has those contents
+     * @throws ConfigurateException if the node could not be rendered
+     */
+    @Nullable Rendered prepare(final ConfigurationNode node) throws ConfigurateException {
+        final @Nullable SharedDefaults defaults = this.defaults;
+        if (defaults != null) {
+            defaults.mergeInto(node);
+        }
+        final byte[] contents = this.format.write(node);
+        final long checksum = checksum(contents);
+        if (checksum == this.checksumOnDisk()) {
+            SKIPPED_SAVES.increment();
+            this.checksum = checksum;
+            return null;
+        }
+        return new Rendered(contents, checksum);
+    }
+
+    /**
+     * Record that rendered contents have been written to the file.
+     *
+     * @param checksum the checksum of the written contents
+     */
+    void written(final long checksum) {
+        this.checksum = checksum;
+    }
+
+    @Override
+    public CommentedConfigurationNode createNode(final ConfigurationOptions options) {
+        return this.format.createNode(options);
+    }
+
+    @Override
+    public boolean canLoad() {
+        return true;
+    }
+
+    @Override
+    public boolean canSave() {
+        return true;
+    }
+
+    private long checksumOnDisk() {
+        try {
+            return checksum(Files.readAllBytes(this.file));
+        } catch (final NoSuchFileException ex) {
+            return MISSING;
+        } catch (final IOException ex) {
+            return UNKNOWN;
+        }
+    }
+
+    static long checksum(final byte[] contents) {
+        final CRC32C crc = new CRC32C();
+        crc.update(contents);
+        return crc.getValue();
+    }
+
+    record Rendered(byte[] contents, long checksum) {}
+
+}
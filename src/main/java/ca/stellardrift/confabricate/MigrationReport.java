@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The outcome of a {@link BulkMigrator} run.
+ *
+ * @param files the result for every file visited, ordered by path
+ * @param elapsed the wall-clock time the whole run took
+ * @since 3.0.0
+ */
+public record MigrationReport(List<FileResult> files, Duration elapsed) {
+
+    /**
+     * Create a new report.
+     *
+     * @param files the result for every file visited
+     * @param elapsed the wall-clock time the whole run took
+     * @since 3.0.0
+     */
+    public MigrationReport {
+        files = List.copyOf(files);
+    }
+
+    /**
+     * Get the number of files that were upgraded and written back.
+     *
+     * @return the number of migrated files
+     * @since 3.0.0
+     */
+    public long migrated() {
+        return this.files.stream().filter(FileResult::migrated).count();
+    }
+
+    /**
+     * Get the results for files that could not be migrated.
+     *
+     * @return failed files
+     * @since 3.0.0
+     */
+    public List<FileResult> failed() {
+        return this.files.stream().filter(file -> file.error() != null).toList();
+    }
+
+    /**
+     * The outcome of migrating a single file.
+     *
+     * @param file the file
+     * @param fromVersion the data version before migration, or {@code -1}
+     *     if unknown
+     * @param toVersion the data version after migration, or {@code -1} if
+     *     unknown
+     * @param migrated whether the file was upgraded and written back
+     * @param elapsed the time spent reading, upgrading, and writing the file
+     * @param error the error that prevented migration, if any
+     * @since 3.0.0
+     */
+    public record FileResult(Path file, int fromVersion, int toVersion, boolean migrated, Duration elapsed, @Nullable Exception error) {
+    }
+
+}
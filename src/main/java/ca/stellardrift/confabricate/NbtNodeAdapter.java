@@ -51,16 +51,25 @@ public final class NbtNodeAdapter {
 
         @Override
         public BasicConfigurationNode createNode(final ConfigurationOptions options) {
-            return BasicConfigurationNode.root(options
-                    .nativeTypes(Set.of(Map.class, List.class, Byte.class,
-                            Short.class, Integer.class, Long.class, Float.class, Double.class,
-                            long[].class, byte[].class, int[].class, String.class)));
+            return BasicConfigurationNode.root(nbtOptions(options));
         }
 
     };
 
     private NbtNodeAdapter() {}
 
+    /**
+     * Restrict options to the value types NBT can represent.
+     *
+     * @param options the options to restrict
+     * @return the restricted options
+     */
+    static ConfigurationOptions nbtOptions(final ConfigurationOptions options) {
+        return options.nativeTypes(Set.of(Map.class, List.class, Byte.class,
+                Short.class, Integer.class, Long.class, Float.class, Double.class,
+                long[].class, byte[].class, int[].class, String.class));
+    }
+
     /**
      * Given a tag, convert it to a node.
      *
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.spongepowered.configurate.CommentedConfigurationNodeIntermediary;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.NodePath;
+
+/**
+ * Merges a freshly loaded tree into an existing one, so that nodes whose
+ * structure is unchanged are kept rather than replaced.
+ *
+ * <p>Unchanged scalars are not touched, map children are only created or
+ * removed for keys that were added or removed, and list children only at
+ * the end of lists that changed length. The freshly loaded tree is then
+ * short-lived, while the existing tree (which has usually been promoted to
+ * the old generation) stays in place, so reloads that change little create
+ * little long-lived garbage.</p>
+ *
+ * <p>Reuse is opt-in, enabled by setting the
+ * {@code confabricate.reuseNodes} system property to {@code true}. It does
+ * not apply to configurations that copy defaults, and merges hold the
+ * loader's lock, as described in {@link ManagedLoader}.</p>
+ */
+final class NodeReconciler {
+
+    /**
+     * System property enabling node reuse across reloads.
+     */
+    static final String ENABLED_PROPERTY = "confabricate.reuseNodes";
+    static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    private final List<NodePath> changed = new ArrayList<>();
+    private long reused;
+    private long created;
+    private long removed;
+
+    private NodeReconciler() {
+    }
+
+    /**
+     * Make the target tree hold the same values and comments as the source.
+     *
+     * @param target the existing tree, which is modified
+     * @param source the freshly loaded tree
+     * @return the outcome of reconciling
+     */
+    static NodeReconciler reconcile(final ConfigurationNode target, final ConfigurationNode source) {
+        final NodeReconciler reconciler = new NodeReconciler();
+        reconciler.merge(target, source);
+        return reconciler;
+    }
+
+    /**
+     * Get the paths whose values changed.
+     *
+     * <p>Replaced, added and removed sections are recorded once, rather
+     * than once for each value beneath them.</p>
+     *
+     * @return the changed paths
+     */
+    List<NodePath> changed() {
+        return this.changed;
+    }
+
+    long reused() {
+        return this.reused;
+    }
+
+    long created() {
+        return this.created;
+    }
+
+    long removed() {
+        return this.removed;
+    }
+
+    private void merge(final ConfigurationNode target, final ConfigurationNode source) {
+        if (target instanceof CommentedConfigurationNodeIntermediary<?> commentedTarget
+            && source instanceof CommentedConfigurationNodeIntermediary<?> commentedSource
+            && !Objects.equals(commentedTarget.comment(), commentedSource.comment())) {
+            commentedTarget.comment(commentedSource.comment());
+        }
+
+        if (source.isMap()) {
+            if (!target.isMap()) {
+                this.replace(target, source);
+                return;
+            }
+            final Map<Object, ? extends ConfigurationNode> sourceChildren = source.childrenMap();
+            for (final Map.Entry<Object, ? extends ConfigurationNode> child : target.childrenMap().entrySet()) {
+                if (!sourceChildren.containsKey(child.getKey())) {
+                    this.removed += count(child.getValue());
+                    this.changed.add(child.getValue().path());
+                    target.removeChild(child.getKey());
+                }
+            }
+            for (final Map.Entry<Object, ? extends ConfigurationNode> child : sourceChildren.entrySet()) {
+                final ConfigurationNode existing = target.node(child.getKey());
+                if (existing.virtual()) {
+                    this.created += count(child.getValue());
+                    this.changed.add(existing.path());
+                    existing.from(child.getValue());
+                } else {
+                    this.merge(existing, child.getValue());
+                }
+            }
+        } else if (source.isList()) {
+            if (!target.isList()) {
+                this.replace(target, source);
+                return;
+            }
+            final List<? extends ConfigurationNode> targetChildren = target.childrenList();
+            final List<? extends ConfigurationNode> sourceChildren = source.childrenList();
+            final int common = Math.min(targetChildren.size(), sourceChildren.size());
+            for (int i = 0; i < common; i++) {
+                this.merge(targetChildren.get(i), sourceChildren.get(i));
+            }
+            if (targetChildren.size() != sourceChildren.size()) {
+                this.changed.add(target.path());
+            }
+            for (int i = targetChildren.size() - 1; i >= common; i--) {
+                this.removed += count(targetChildren.get(i));
+                target.removeChild(i);
+            }
+            for (int i = common; i < sourceChildren.size(); i++) {
+                this.created += count(sourceChildren.get(i));
+                target.appendListNode().from(sourceChildren.get(i));
+            }
+        } else if (target.isMap() || target.isList() || !Objects.equals(target.rawScalar(), source.rawScalar())) {
+            this.replace(target, source);
+            return;
+        }
+        this.reused++;
+    }
+
+    private void replace(final ConfigurationNode target, final ConfigurationNode source) {
+        this.removed += count(target) - 1;
+        this.created += count(source) - 1;
+        this.reused++;
+        this.changed.add(target.path());
+        target.from(source);
+    }
+
+    /**
+     * Count the nodes in a tree.
+     *
+     * @param node the root of the tree
+     * @return the number of nodes, including the root
+     */
+    static long count(final ConfigurationNode node) {
+        long count = 1;
+        if (node.isMap()) {
+            for (final ConfigurationNode child : node.childrenMap().values()) {
+                count += count(child);
+            }
+        } else if (node.isList()) {
+            for (final ConfigurationNode child : node.childrenList()) {
+                count += count(child);
+            }
+        }
+        return count;
+    }
+
+}
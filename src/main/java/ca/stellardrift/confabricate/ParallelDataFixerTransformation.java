@@ -0,0 +1,301 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import com.mojang.datafixers.DSL;
+import com.mojang.datafixers.DataFixer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.NodePath;
+import org.spongepowered.configurate.extra.dfu.v4.DataFixerTransformation;
+import org.spongepowered.configurate.transformation.ConfigurationTransformation;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A transformation applying a {@link DataFixer} to parts of a node, which
+ * upgrades many values concurrently.
+ *
+ * <p>This behaves like a {@link DataFixerTransformation}: every type is
+ * upgraded from the version stored at the version key, which is then set to
+ * the target version. When a path containing
+ * {@link ConfigurationTransformation#WILDCARD_OBJECT wildcards} matches many
+ * nodes, those nodes are upgraded in parallel on a {@link ForkJoinPool}.
+ * Upgraded values are only written back to the tree once every match has
+ * been upgraded, so the tree is never modified while it is being read.</p>
+ *
+ * @since 3.0.0
+ */
+public final class ParallelDataFixerTransformation implements ConfigurationTransformation.Versioned {
+
+    /**
+     * Fewer matches than this are upgraded on the calling thread.
+     */
+    private static final int PARALLEL_THRESHOLD = 64;
+
+    /**
+     * The number of matches each fork/join task upgrades directly.
+     */
+    private static final int LEAF_SIZE = 16;
+
+    private final NodePath versionKey;
+    private final int targetVersion;
+    private final DataFixer fixer;
+    private final List<TypePath> types;
+    private final ForkJoinPool pool;
+
+    /**
+     * Create a new builder.
+     *
+     * @return a new builder
+     * @since 3.0.0
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private ParallelDataFixerTransformation(final Builder builder) {
+        this.versionKey = builder.versionKey;
+        this.targetVersion = builder.targetVersion;
+        this.fixer = requireNonNull(builder.fixer, "A data fixer must be provided");
+        this.types = List.copyOf(builder.types);
+        this.pool = builder.pool;
+        for (final TypePath type : this.types) {
+            DataFixerWarmup.declare(this.fixer, type.type(), this.targetVersion);
+        }
+    }
+
+    @Override
+    public NodePath versionKey() {
+        return this.versionKey;
+    }
+
+    @Override
+    public int latestVersion() {
+        return this.targetVersion;
+    }
+
+    @Override
+    public void apply(final ConfigurationNode node) throws ConfigurateException {
+        final ConfigurationNode versionNode = node.node(this.versionKey);
+        final int currentVersion = versionNode.getInt(VERSION_UNKNOWN);
+        if (currentVersion > this.targetVersion) {
+            throw new ConfigurateException(node, "Target version " + this.targetVersion
+                + " is older than the data's current version " + currentVersion);
+        } else if (currentVersion == this.targetVersion) {
+            return;
+        }
+
+        for (final TypePath type : this.types) {
+            final List<ConfigurationNode> matches = new ArrayList<>();
+            collect(node, type.path(), 0, matches);
+            final ConfigurationNode[] upgraded = new ConfigurationNode[matches.size()];
+            final Job job = new Job(this.fixer, type.type(), matches, upgraded, currentVersion, this.targetVersion);
+            try {
+                if (matches.size() < PARALLEL_THRESHOLD) {
+                    job.upgrade(0, matches.size());
+                } else {
+                    this.pool.invoke(new Upgrade(job, 0, matches.size()));
+                }
+            } catch (final RuntimeException ex) {
+                throw new ConfigurateException(node, "Failed to upgrade values of type " + type.type().typeName(), ex);
+            }
+
+            for (int i = 0; i < upgraded.length; i++) {
+                matches.get(i).set(upgraded[i]);
+            }
+        }
+        versionNode.raw(this.targetVersion);
+    }
+
+    private static void collect(final ConfigurationNode node, final Object[] path, final int index, final List<ConfigurationNode> matches) {
+        if (index == path.length) {
+            if (!node.virtual()) {
+                matches.add(node);
+            }
+            return;
+        }
+
+        final Object key = path[index];
+        if (key == ConfigurationTransformation.WILDCARD_OBJECT) {
+            if (node.isList()) {
+                for (final ConfigurationNode child : node.childrenList()) {
+                    collect(child, path, index + 1, matches);
+                }
+            } else if (node.isMap()) {
+                for (final ConfigurationNode child : node.childrenMap().values()) {
+                    collect(child, path, index + 1, matches);
+                }
+            }
+        } else {
+            final ConfigurationNode child = node.node(key);
+            if (!child.virtual()) {
+                collect(child, path, index + 1, matches);
+            }
+        }
+    }
+
+    /**
+     * The matches of one type, and where to store their upgraded values.
+     */
+    private record Job(
+        DataFixer fixer,
+        DSL.TypeReference type,
+        List<ConfigurationNode> matches,
+        ConfigurationNode[] upgraded,
+        int currentVersion,
+        int targetVersion
+    ) {
+
+        void upgrade(final int start, final int end) {
+            for (int i = start; i < end; i++) {
+                this.upgraded[i] = DataUpgrades.upgraded(this.fixer, this.type, this.matches.get(i), this.currentVersion, this.targetVersion);
+            }
+        }
+
+    }
+
+    /**
+     * Upgrades a range of matched nodes, splitting large ranges.
+     */
+    private static final class Upgrade extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Job job;
+        private final int start;
+        private final int end;
+
+        Upgrade(final Job job, final int start, final int end) {
+            this.job = job;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start <= LEAF_SIZE) {
+                this.job.upgrade(this.start, this.end);
+            } else {
+                final int middle = (this.start + this.end) >>> 1;
+                invokeAll(new Upgrade(this.job, this.start, middle), new Upgrade(this.job, middle, this.end));
+            }
+        }
+
+    }
+
+    private record TypePath(DSL.TypeReference type, Object[] path) {}
+
+    /**
+     * A builder for parallel data fixer transformations.
+     *
+     * @since 3.0.0
+     */
+    public static final class Builder {
+
+        private NodePath versionKey = NodePath.path("dfu-version");
+        private int targetVersion = -1;
+        private @Nullable DataFixer fixer;
+        private final List<TypePath> types = new ArrayList<>();
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        Builder() {
+        }
+
+        /**
+         * Set the fixer to apply.
+         *
+         * @param fixer the data fixer
+         * @return this builder
+         * @since 3.0.0
+         */
+        public Builder dataFixer(final DataFixer fixer) {
+            this.fixer = requireNonNull(fixer, "fixer");
+            return this;
+        }
+
+        /**
+         * Set the path of the node holding the data's version.
+         *
+         * @param path the version key
+         * @return this builder
+         * @since 3.0.0
+         */
+        public Builder versionKey(final Object... path) {
+            this.versionKey = NodePath.of(path);
+            return this;
+        }
+
+        /**
+         * Set the version to upgrade to.
+         *
+         * @param targetVersion the target version
+         * @return this builder
+         * @since 3.0.0
+         */
+        public Builder targetVersion(final int targetVersion) {
+            this.targetVersion = targetVersion;
+            return this;
+        }
+
+        /**
+         * Upgrade every node at a path as the provided type.
+         *
+         * <p>The path may contain
+         * {@link ConfigurationTransformation#WILDCARD_OBJECT wildcards}.</p>
+         *
+         * @param type the type of values at the path
+         * @param path the path to upgrade
+         * @return this builder
+         * @since 3.0.0
+         */
+        public Builder addType(final DSL.TypeReference type, final Object... path) {
+            this.types.add(new TypePath(requireNonNull(type, "type"), path.clone()));
+            return this;
+        }
+
+        /**
+         * Set the pool to upgrade values on.
+         *
+         * <p>By default, the common pool is used.</p>
+         *
+         * @param pool the pool
+         * @return this builder
+         * @since 3.0.0
+         */
+        public Builder pool(final ForkJoinPool pool) {
+            this.pool = requireNonNull(pool, "pool");
+            return this;
+        }
+
+        /**
+         * Create a new transformation from this builder's state.
+         *
+         * @return a new transformation
+         * @since 3.0.0
+         */
+        public ParallelDataFixerTransformation build() {
+            return new ParallelDataFixerTransformation(this);
+        }
+
+    }
+
+}
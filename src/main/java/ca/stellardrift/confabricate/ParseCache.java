@@ -0,0 +1,405 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.CommentedConfigurationNodeIntermediary;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.ConfigurationOptions;
+import org.spongepowered.configurate.ScopedConfigurationNode;
+import org.spongepowered.configurate.loader.ConfigurationLoader;
+
+/**
+ * A cache of parsed node trees in a compact binary form.
+ *
+ * <p>Each managed file has at most one entry, named after a hash of the
+ * file's path. An entry records the Confabricate version that wrote it, the
+ * file's path, and a SHA-256 hash of the contents it was parsed from, and
+ * is only used when the version and hash match, so editing a file or
+ * updating Confabricate simply replaces its entry. Entries written by
+ * another version or for files that no longer exist are removed by
+ * {@link #prune()}.</p>
+ *
+ * <p>Entries hold every value and comment in a tree, along with the file's
+ * header, so a node read from the cache is indistinguishable from a freshly
+ * parsed one. Trees holding values the format cannot represent are not
+ * cached.</p>
+ *
+ * <p>A parsed HOCON tree only depends on the file's contents when the file
+ * has no substitutions or includes, which can read environment variables,
+ * system properties and other files. Contents that might use either are
+ * never cached, see {@link #cacheable(byte[])}.</p>
+ *
+ * <p>Caching is opt-in, enabled by setting the
+ * {@code confabricate.parseCache} system property to {@code true}.</p>
+ */
+final class ParseCache {
+
+    /**
+     * System property controlling whether parsed trees are cached.
+     */
+    static final String ENABLED_PROPERTY = "confabricate.parseCache";
+    static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    private static final byte[] SUBSTITUTION = "${".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INCLUDE = "include".getBytes(StandardCharsets.UTF_8);
+
+    private static final int MAGIC = 0x43464232; // CFB2
+    private static final String ENTRY_SUFFIX = ".bin";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    // temporary files younger than this may still be in the middle of being written
+    private static final Duration TEMPORARY_MAX_AGE = Duration.ofHours(1);
+
+    private static final byte TAG_EMPTY = 0;
+    private static final byte TAG_MAP = 1;
+    private static final byte TAG_LIST = 2;
+    private static final byte TAG_STRING = 3;
+    private static final byte TAG_INT = 4;
+    private static final byte TAG_LONG = 5;
+    private static final byte TAG_DOUBLE = 6;
+    private static final byte TAG_FLOAT = 7;
+    private static final byte TAG_BOOLEAN = 8;
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    private final Path directory;
+    private final String version;
+
+    ParseCache(final Path directory, final String version) {
+        this.directory = directory;
+        this.version = version;
+    }
+
+    static long hits() {
+        return HITS.sum();
+    }
+
+    static long misses() {
+        return MISSES.sum();
+    }
+
+    /**
+     * Get whether a tree parsed from the provided contents depends only on
+     * those contents.
+     *
+     * <p>This is conservative: contents mentioning a substitution or an
+     * include anywhere, even within a string or comment, are not
+     * cacheable.</p>
+     *
+     * @param contents the contents of a file
+     * @return whether the parsed tree may be cached
+     */
+    static boolean cacheable(final byte[] contents) {
+        return indexOf(contents, SUBSTITUTION) == -1 && indexOf(contents, INCLUDE) == -1;
+    }
+
+    private static int indexOf(final byte[] haystack, final byte[] needle) {
+        outer:
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Read the cached tree for a file, if it is up to date.
+     *
+     * @param file the file the contents were read from
+     * @param contents the current contents of the file
+     * @param loader the loader to create nodes with
+     * @param options the options to create nodes with
+     * @param <N> node type
+     * @return the cached tree, or {@code null} if there is no usable entry
+     */
+    <N extends ScopedConfigurationNode<N>> @Nullable N read(
+        final Path file,
+        final byte[] contents,
+        final ConfigurationLoader<N> loader,
+        final ConfigurationOptions options
+    ) {
+        final Path entry = this.entry(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            if (in.readInt() != MAGIC
+                || !in.readUTF().equals(this.version)
+                || !readString(in).equals(source(file))
+                || !Arrays.equals(readBytes(in), digest(contents))) {
+                MISSES.increment();
+                return null;
+            }
+            final N node = loader.createNode(in.readBoolean() ? options.header(readString(in)) : options);
+            readNode(in, node);
+            HITS.increment();
+            return node;
+        } catch (final NoSuchFileException ex) {
+            MISSES.increment();
+            return null;
+        } catch (final IOException | RuntimeException ex) {
+            Confabricate.LOGGER.debug("Discarding unreadable parse cache entry {} for {}", entry, file, ex);
+            MISSES.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Store the tree parsed from a file's contents.
+     *
+     * @param file the file the contents were read from
+     * @param contents the contents the node was parsed from
+     * @param node the parsed node
+     */
+    void write(final Path file, final byte[] contents, final ConfigurationNode node) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(contents.length);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeUTF(this.version);
+            writeString(out, source(file));
+            writeBytes(out, digest(contents));
+            final @Nullable String header = node.options().header();
+            out.writeBoolean(header != null);
+            if (header != null) {
+                writeString(out, header);
+            }
+            writeNode(out, node);
+        } catch (final IOException ex) {
+            // only unsupported values, since we write to memory
+            return;
+        }
+
+        final Path entry = this.entry(file);
+        try {
+            Files.createDirectories(this.directory);
+            // files may be loaded concurrently, so never share a temporary file
+            final Path temporary = Files.createTempFile(this.directory, entry.getFileName().toString(), TEMPORARY_SUFFIX);
+            try (BufferedOutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+                bytes.writeTo(out);
+            }
+            try {
+                Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException ex) {
+                Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (final IOException ex) {
+            Confabricate.LOGGER.debug("Unable to write parse cache entry {} for {}", entry, file, ex);
+        }
+    }
+
+    /**
+     * Remove entries that can never be used again: those written by another
+     * version, those for files that no longer exist, and abandoned
+     * temporary files.
+     */
+    void prune() {
+        final List<Path> files;
+        try (Stream<Path> listing = Files.list(this.directory)) {
+            files = listing.toList();
+        } catch (final NoSuchFileException ex) {
+            return;
+        } catch (final IOException ex) {
+            Confabricate.LOGGER.debug("Unable to list parse cache entries in {}", this.directory, ex);
+            return;
+        }
+
+        final Instant abandoned = Instant.now().minus(TEMPORARY_MAX_AGE);
+        int removed = 0;
+        for (final Path file : files) {
+            final String name = file.getFileName().toString();
+            try {
+                if (name.endsWith(ENTRY_SUFFIX) && this.stale(file)
+                    || name.endsWith(TEMPORARY_SUFFIX) && Files.getLastModifiedTime(file).toInstant().isBefore(abandoned)) {
+                    Files.deleteIfExists(file);
+                    removed++;
+                }
+            } catch (final IOException ex) {
+                Confabricate.LOGGER.debug("Unable to prune parse cache entry {}", file, ex);
+            }
+        }
+        if (removed > 0) {
+            Confabricate.LOGGER.debug("Pruned {} stale parse cache entries from {}", removed, this.directory);
+        }
+    }
+
+    private boolean stale(final Path entry) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            return in.readInt() != MAGIC
+                || !in.readUTF().equals(this.version)
+                || !Files.exists(Path.of(readString(in)));
+        } catch (final IOException | RuntimeException ex) {
+            return true;
+        }
+    }
+
+    private Path entry(final Path file) {
+        final byte[] name = source(file).getBytes(StandardCharsets.UTF_8);
+        return this.directory.resolve(HexFormat.of().formatHex(digest(name), 0, 16) + ENTRY_SUFFIX);
+    }
+
+    private static String source(final Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private static byte[] digest(final byte[] contents) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(contents);
+        } catch (final NoSuchAlgorithmException ex) {
+            // required to be present on every Java platform
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void writeNode(final DataOutputStream out, final ConfigurationNode node) throws IOException {
+        final @Nullable String comment = node instanceof CommentedConfigurationNodeIntermediary<?> commented ? commented.comment() : null;
+        out.writeBoolean(comment != null);
+        if (comment != null) {
+            writeString(out, comment);
+        }
+
+        if (node.isMap()) {
+            final Map<Object, ? extends ConfigurationNode> children = node.childrenMap();
+            out.writeByte(TAG_MAP);
+            out.writeInt(children.size());
+            for (final Map.Entry<Object, ? extends ConfigurationNode> child : children.entrySet()) {
+                if (!(child.getKey() instanceof String key)) {
+                    throw new IOException("Unsupported map key " + child.getKey());
+                }
+                writeString(out, key);
+                writeNode(out, child.getValue());
+            }
+        } else if (node.isList()) {
+            final List<? extends ConfigurationNode> children = node.childrenList();
+            out.writeByte(TAG_LIST);
+            out.writeInt(children.size());
+            for (final ConfigurationNode child : children) {
+                writeNode(out, child);
+            }
+        } else {
+            final @Nullable Object value = node.rawScalar();
+            if (value == null) {
+                out.writeByte(TAG_EMPTY);
+            } else if (value instanceof String string) {
+                out.writeByte(TAG_STRING);
+                writeString(out, string);
+            } else if (value instanceof Integer integer) {
+                out.writeByte(TAG_INT);
+                out.writeInt(integer);
+            } else if (value instanceof Long longValue) {
+                out.writeByte(TAG_LONG);
+                out.writeLong(longValue);
+            } else if (value instanceof Double doubleValue) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble(doubleValue);
+            } else if (value instanceof Float floatValue) {
+                out.writeByte(TAG_FLOAT);
+                out.writeFloat(floatValue);
+            } else if (value instanceof Boolean bool) {
+                out.writeByte(TAG_BOOLEAN);
+                out.writeBoolean(bool);
+            } else {
+                throw new IOException("Unsupported value type " + value.getClass());
+            }
+        }
+    }
+
+    private static void readNode(final DataInputStream in, final ConfigurationNode node) throws IOException {
+        final @Nullable String comment = in.readBoolean() ? readString(in) : null;
+
+        final byte tag = in.readByte();
+        switch (tag) {
+            case TAG_MAP -> {
+                final int size = in.readInt();
+                if (size == 0) {
+                    node.raw(Map.of());
+                }
+                for (int i = 0; i < size; i++) {
+                    readNode(in, node.node(readString(in)));
+                }
+            }
+            case TAG_LIST -> {
+                final int size = in.readInt();
+                if (size == 0) {
+                    node.raw(List.of());
+                }
+                for (int i = 0; i < size; i++) {
+                    readNode(in, node.appendListNode());
+                }
+            }
+            case TAG_EMPTY -> { }
+            case TAG_STRING -> node.raw(readString(in));
+            case TAG_INT -> node.raw(in.readInt());
+            case TAG_LONG -> node.raw(in.readLong());
+            case TAG_DOUBLE -> node.raw(in.readDouble());
+            case TAG_FLOAT -> node.raw(in.readFloat());
+            case TAG_BOOLEAN -> node.raw(in.readBoolean());
+            default -> throw new IOException("Unknown tag " + tag);
+        }
+
+        // applied last, since setting a comment is what attaches an empty node to its parent
+        if (comment != null && node instanceof CommentedConfigurationNodeIntermediary<?> commented) {
+            commented.comment(comment);
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(final DataOutputStream out, final byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative length " + length);
+        }
+        final byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.reactive.Disposable;
+import org.spongepowered.configurate.reactive.Subscriber;
+
+/**
+ * Watches files by periodically checking their attributes, for file
+ * systems where a {@link java.nio.file.WatchService} is unavailable or
+ * unreliable.
+ *
+ * <p>Every watched path is checked from a single scheduler thread, with
+ * about {@code confabricate.pollBatchSize} files (256 by default) checked
+ * on each poll. Each poll moves on to the next batch, so the cost of
+ * polling stays flat however many files are watched. A watched directory
+ * is always checked whole within one poll, at the cost of one check for
+ * the directory and one for each file in it, so a poll reaching a
+ * directory larger than the batch size checks more files than that.</p>
+ *
+ * <p>The polling interval adapts to how often files change. It is
+ * {@code confabricate.pollMinInterval} milliseconds (500 by default) after
+ * a path is registered or a change is seen, and stays there until every
+ * registration has been checked once more without seeing a change. It then
+ * doubles after every poll that sees none, up to
+ * {@code confabricate.pollMaxInterval} milliseconds (8000 by default).</p>
+ *
+ * <p>A change made shortly after another change or a registration is
+ * therefore noticed within one cycle through the batches at the minimum
+ * interval. After a quiet period, a change can take up to one cycle at
+ * the maximum interval to be noticed: with 2000 watched files in batches
+ * of 256, that is 8 polls, or about a minute with the default maximum.
+ * Large numbers of polled files should use a larger batch size or a
+ * shorter maximum interval.</p>
+ */
+final class PollingWatcher {
+
+    static final String MIN_INTERVAL_PROPERTY = "confabricate.pollMinInterval";
+    static final String MAX_INTERVAL_PROPERTY = "confabricate.pollMaxInterval";
+    static final String BATCH_SIZE_PROPERTY = "confabricate.pollBatchSize";
+    static final long MIN_INTERVAL_MILLIS = Math.max(1, Long.getLong(MIN_INTERVAL_PROPERTY, 500));
+    static final long MAX_INTERVAL_MILLIS = Math.max(MIN_INTERVAL_MILLIS, Long.getLong(MAX_INTERVAL_PROPERTY, 8_000));
+    static final int BATCH_SIZE = Math.max(1, Integer.getInteger(BATCH_SIZE_PROPERTY, 256));
+
+    static final PollingWatcher INSTANCE = new PollingWatcher();
+
+    private static final LongAdder FILES_CHECKED = new LongAdder();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+        final Thread thread = new Thread(task, "Confabricate file poller");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Watched> watched = new CopyOnWriteArrayList<>();
+    // only accessed from the scheduler thread
+    private @Nullable ScheduledFuture<?> next;
+    private int cursor;
+    // registrations checked since the last change or registration
+    private int quietChecks;
+    private long intervalMillis = MIN_INTERVAL_MILLIS;
+
+    private PollingWatcher() {
+    }
+
+    /**
+     * Get the number of file attribute checks performed so far.
+     *
+     * @return the number of checks
+     */
+    static long filesChecked() {
+        return FILES_CHECKED.sum();
+    }
+
+    /**
+     * Watch a single file.
+     *
+     * @param file the file to watch
+     * @param subscriber the subscriber to notify of changes
+     * @return a handle to stop watching
+     */
+    Disposable listenToFile(final Path file, final Subscriber<WatchEvent<?>> subscriber) {
+        return this.register(new WatchedFile(file.toAbsolutePath(), subscriber));
+    }
+
+    /**
+     * Watch the files directly within a directory.
+     *
+     * @param directory the directory to watch
+     * @param subscriber the subscriber to notify of changes
+     * @return a handle to stop watching
+     */
+    Disposable listenToDirectory(final Path directory, final Subscriber<WatchEvent<?>> subscriber) {
+        return this.register(new WatchedDirectory(directory.toAbsolutePath(), subscriber));
+    }
+
+    private Disposable register(final Watched watched) {
+        // record the initial state, so only later changes are reported
+        watched.poll(false);
+        this.watched.add(watched);
+        this.scheduler.execute(this::wake);
+        return () -> this.watched.remove(watched);
+    }
+
+    /**
+     * Return to the minimum interval, bringing the next poll forward if it
+     * was scheduled later than that.
+     */
+    private void wake() {
+        this.quietChecks = 0;
+        this.intervalMillis = MIN_INTERVAL_MILLIS;
+        final @Nullable ScheduledFuture<?> next = this.next;
+        if (next == null || next.getDelay(TimeUnit.MILLISECONDS) > MIN_INTERVAL_MILLIS) {
+            if (next != null) {
+                next.cancel(false);
+            }
+            this.next = this.scheduler.schedule(this::poll, MIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void poll() {
+        try {
+            final Watched[] all = this.watched.toArray(new Watched[0]);
+            int checked = 0;
+            boolean changed = false;
+            int visited = 0;
+            while (visited < all.length && checked < BATCH_SIZE) {
+                final Watched next = all[(this.cursor + visited) % all.length];
+                checked += next.cost();
+                changed |= next.poll(true);
+                visited++;
+            }
+            this.cursor = all.length == 0 ? 0 : (this.cursor + visited) % all.length;
+            FILES_CHECKED.add(checked);
+            if (changed) {
+                this.quietChecks = 0;
+                this.intervalMillis = MIN_INTERVAL_MILLIS;
+            } else {
+                this.quietChecks = Math.min(this.quietChecks + visited, all.length);
+                // only back off once every registration has been checked since the last change
+                if (this.quietChecks >= all.length) {
+                    this.intervalMillis = Math.min(this.intervalMillis * 2, MAX_INTERVAL_MILLIS);
+                }
+            }
+        } catch (final RuntimeException ex) {
+            Confabricate.LOGGER.error("Error while polling watched files", ex);
+        } finally {
+            this.next = this.scheduler.schedule(this::poll, this.intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static @Nullable Stamp stamp(final Path file) throws IOException {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new Stamp(attributes.lastModifiedTime(), attributes.size(), attributes.fileKey());
+        } catch (final NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    private static WatchEvent.Kind<Path> kind(final @Nullable Stamp previous, final @Nullable Stamp current) {
+        if (previous == null) {
+            return StandardWatchEventKinds.ENTRY_CREATE;
+        } else if (current == null) {
+            return StandardWatchEventKinds.ENTRY_DELETE;
+        }
+        return StandardWatchEventKinds.ENTRY_MODIFY;
+    }
+
+    /**
+     * The attributes of a file that indicate it has changed.
+     */
+    private record Stamp(FileTime modified, long size, @Nullable Object fileKey) {}
+
+    /**
+     * A synthesized watch event, matching those from a watch service.
+     */
+    private record PolledEvent(WatchEvent.Kind<Path> kind, Path context) implements WatchEvent<Path> {
+
+        @Override
+        public int count() {
+            return 1;
+        }
+
+    }
+
+    /**
+     * A registered path.
+     */
+    private abstract static class Watched {
+
+        private final Subscriber<WatchEvent<?>> subscriber;
+
+        Watched(final Subscriber<WatchEvent<?>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Get the number of files checked by each poll.
+         *
+         * @return the number of checks
+         */
+        abstract int cost();
+
+        /**
+         * Check for changes.
+         *
+         * @param notify whether to notify the subscriber of changes
+         * @return whether anything changed
+         */
+        abstract boolean poll(boolean notify);
+
+        final void changed(final WatchEvent.Kind<Path> kind, final Path name) {
+            try {
+                this.subscriber.submit(new PolledEvent(kind, name));
+            } catch (final RuntimeException ex) {
+                this.subscriber.onError(ex);
+            }
+        }
+
+        final void failed(final IOException ex) {
+            this.subscriber.onError(ex);
+        }
+
+    }
+
+    private static final class WatchedFile extends Watched {
+
+        private final Path file;
+        private @Nullable Stamp stamp;
+
+        WatchedFile(final Path file, final Subscriber<WatchEvent<?>> subscriber) {
+            super(subscriber);
+            this.file = file;
+        }
+
+        @Override
+        int cost() {
+            return 1;
+        }
+
+        @Override
+        boolean poll(final boolean notify) {
+            final @Nullable Stamp current;
+            try {
+                current = stamp(this.file);
+            } catch (final IOException ex) {
+                this.failed(ex);
+                return false;
+            }
+            final @Nullable Stamp previous = this.stamp;
+            if (Objects.equals(previous, current)) {
+                return false;
+            }
+            this.stamp = current;
+            if (notify) {
+                this.changed(kind(previous, current), this.file.getFileName());
+            }
+            return true;
+        }
+
+    }
+
+    private static final class WatchedDirectory extends Watched {
+
+        private final Path directory;
+        private Map<Path, Stamp> stamps = Map.of();
+
+        WatchedDirectory(final Path directory, final Subscriber<WatchEvent<?>> subscriber) {
+            super(subscriber);
+            this.directory = directory;
+        }
+
+        @Override
+        int cost() {
+            return 1 + this.stamps.size();
+        }
+
+        @Override
+        boolean poll(final boolean notify) {
+            final Map<Path, Stamp> current = new HashMap<>();
+            try (Stream<Path> files = Files.list(this.directory)) {
+                for (final Path file : (Iterable<Path>) files::iterator) {
+                    final @Nullable Stamp stamp = stamp(file);
+                    if (stamp != null) {
+                        current.put(file.getFileName(), stamp);
+                    }
+                }
+            } catch (final NoSuchFileException ex) {
+                // treat a missing directory as empty
+            } catch (final IOException ex) {
+                this.failed(ex);
+                return false;
+            }
+
+            final Map<Path, Stamp> previous = this.stamps;
+            this.stamps = current;
+            boolean changed = false;
+            for (final Map.Entry<Path, Stamp> entry : current.entrySet()) {
+                final @Nullable Stamp old = previous.get(entry.getKey());
+                if (!entry.getValue().equals(old)) {
+                    changed = true;
+                    if (notify) {
+                        this.changed(kind(old, entry.getValue()), entry.getKey());
+                    }
+                }
+            }
+            for (final Path name : previous.keySet()) {
+                if (!current.containsKey(name)) {
+                    changed = true;
+                    if (notify) {
+                        this.changed(StandardWatchEventKinds.ENTRY_DELETE, name);
+                    }
+                }
+            }
+            return changed;
+        }
+
+    }
+
+}
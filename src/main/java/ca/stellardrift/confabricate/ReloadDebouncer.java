@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.reactive.Subscriber;
+
+/**
+ * Merges bursts of watch events for a single file into one reload.
+ *
+ * <p>Each event restarts a quiet period, and the file is only reloaded once
+ * the quiet period passes without any further events.</p>
+ *
+ * <p>Reloads run on the executor of the mod owning the file, from
+ * {@link ReloadExecutors}. At most one reload of a file waits on that
+ * executor at once, since a waiting reload will read the latest contents
+ * anyway. If the executor is full, the reload is retried after another
+ * quiet period.</p>
+ *
+ * <p>Once {@link #close() closed}, pending reloads are cancelled and later
+ * events are ignored.</p>
+ */
+final class ReloadDebouncer implements Subscriber<WatchEvent<?>> {
+
+    /**
+     * System property holding the quiet period, in milliseconds.
+     */
+    static final String QUIET_PERIOD_PROPERTY = "confabricate.reloadQuietPeriod";
+    static final long QUIET_PERIOD_MILLIS = Long.getLong(QUIET_PERIOD_PROPERTY, 250);
+
+    private static final LongAdder COALESCED_EVENTS = new LongAdder();
+    private static final ScheduledExecutorService SCHEDULER;
+
+    static {
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, task -> {
+            final Thread thread = new Thread(task, "Confabricate reload scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        SCHEDULER = scheduler;
+    }
+
+    private final Path file;
+    private final @Nullable String owner;
+    private final ReloadAction action;
+    private final AtomicBoolean queued = new AtomicBoolean();
+    @GuardedBy("this")
+    private @Nullable ScheduledFuture<?> pending;
+    private volatile boolean closed;
+
+    /**
+     * An action to perform on reload.
+     */
+    @FunctionalInterface
+    interface ReloadAction {
+
+        /**
+         * Perform the reload.
+         *
+         * @throws ConfigurateException if the reload fails
+         */
+        void reload() throws ConfigurateException;
+
+    }
+
+    ReloadDebouncer(final Path file, final @Nullable String owner, final ReloadAction action) {
+        this.file = file;
+        this.owner = owner;
+        this.action = action;
+    }
+
+    static long coalescedEvents() {
+        return COALESCED_EVENTS.sum();
+    }
+
+    /**
+     * Cancel any pending reload, and ignore any later events.
+     *
+     * <p>A reload already running is allowed to finish.</p>
+     */
+    synchronized void close() {
+        this.closed = true;
+        final @Nullable ScheduledFuture<?> pending = this.pending;
+        if (pending != null) {
+            pending.cancel(false);
+            this.pending = null;
+        }
+    }
+
+    @Override
+    public synchronized void submit(final WatchEvent<?> item) {
+        if (this.closed) {
+            return;
+        }
+        final @Nullable ScheduledFuture<?> pending = this.pending;
+        if (pending != null && pending.cancel(false)) {
+            COALESCED_EVENTS.increment();
+        }
+        this.pending = SCHEDULER.schedule(this::fire, QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void fire() {
+        if (this.closed) {
+            return;
+        }
+        if (!this.queued.compareAndSet(false, true)) {
+            COALESCED_EVENTS.increment();
+            return;
+        }
+
+        try {
+            // keep slow reloads off the scheduler thread
+            ReloadExecutors.forOwner(this.owner).execute(this::reload);
+        } catch (final RejectedExecutionException ex) {
+            this.queued.set(false);
+            ReloadExecutors.deferred();
+            synchronized (this) {
+                if (this.closed) {
+                    return;
+                }
+                // replaces any newer attempt, which would have been rejected as well
+                final @Nullable ScheduledFuture<?> pending = this.pending;
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+                this.pending = SCHEDULER.schedule(this::fire, QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void reload() {
+        this.queued.set(false);
+        if (this.closed) {
+            return;
+        }
+        try {
+            this.action.reload();
+        } catch (final ConfigurateException ex) {
+            Confabricate.LOGGER.error("Failed to reload configuration from {}", this.file, ex);
+        }
+    }
+
+    @Override
+    public void onError(final Throwable thrown) {
+        Confabricate.LOGGER.error("Error while watching {}", this.file, thrown);
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+/**
+ * Settings for the executor a mod's configurations are reloaded on.
+ *
+ * <p>Each mod's reloads run on its own small pool of threads, so a mod
+ * whose reload listeners are slow only delays its own reloads. Reloads
+ * waiting for a thread are held in a bounded queue. A reload that does
+ * not fit in the queue is retried after the reload quiet period, rather
+ * than blocking the watcher or running on another mod's threads.</p>
+ *
+ * @param threads the maximum number of reloads to run at once
+ * @param queueCapacity the number of reloads that may wait for a thread
+ * @param priority the {@link Thread#setPriority(int) priority} of reload
+ *     threads
+ * @see Confabricate#dispatchReloads(net.fabricmc.loader.api.ModContainer, ReloadDispatch)
+ * @since 3.0.0
+ */
+public record ReloadDispatch(int threads, int queueCapacity, int priority) {
+
+    /**
+     * Validate new settings.
+     *
+     * @param threads the maximum number of reloads to run at once
+     * @param queueCapacity the number of reloads that may wait for a thread
+     * @param priority the priority of reload threads
+     * @since 3.0.0
+     */
+    public ReloadDispatch {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1, but was " + threads);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1, but was " + queueCapacity);
+        }
+        if (priority < Thread.MIN_PRIORITY || priority > Thread.MAX_PRIORITY) {
+            throw new IllegalArgumentException("Priority must be between " + Thread.MIN_PRIORITY + " and " + Thread.MAX_PRIORITY
+                + ", but was " + priority);
+        }
+    }
+
+    /**
+     * Get the settings used for mods that have not configured their own.
+     *
+     * <p>These are a single thread with normal priority, and room for 16
+     * waiting reloads.</p>
+     *
+     * @return the default settings
+     * @since 3.0.0
+     */
+    public static ReloadDispatch defaults() {
+        return new ReloadDispatch(1, 16, Thread.NORM_PRIORITY);
+    }
+
+}
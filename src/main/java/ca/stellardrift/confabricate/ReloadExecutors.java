@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The executors reloads are dispatched to, one for each mod.
+ *
+ * <p>Files that do not belong to a mod share one executor, which is
+ * likewise isolated from every mod's executor.</p>
+ */
+final class ReloadExecutors {
+
+    private static final LongAdder DEFERRED_RELOADS = new LongAdder();
+    private static final Map<String, Executor> OWNED = new ConcurrentHashMap<>();
+    private static final Executor SHARED = new Isolated("shared", ReloadDispatch.defaults());
+
+    private ReloadExecutors() {
+    }
+
+    /**
+     * Get the executor to reload an owner's files on.
+     *
+     * @param owner the ID of the mod owning the file, if any
+     * @return the executor
+     */
+    static Executor forOwner(final @Nullable String owner) {
+        if (owner == null) {
+            return SHARED;
+        }
+        return OWNED.computeIfAbsent(owner, id -> new Isolated(id, ReloadDispatch.defaults()));
+    }
+
+    /**
+     * Replace the executor an owner's files are reloaded on.
+     *
+     * <p>Reloads already queued on the previous executor still run.</p>
+     *
+     * @param owner the ID of the mod owning the files
+     * @param executor the new executor
+     */
+    static void configure(final String owner, final Executor executor) {
+        final @Nullable Executor previous = OWNED.put(owner, executor);
+        if (previous instanceof Isolated isolated && previous != executor) {
+            isolated.shutdown();
+        }
+    }
+
+    /**
+     * Replace the executor an owner's files are reloaded on with one
+     * created from settings.
+     *
+     * @param owner the ID of the mod owning the files
+     * @param settings the settings for the new executor
+     */
+    static void configure(final String owner, final ReloadDispatch settings) {
+        configure(owner, new Isolated(owner, settings));
+    }
+
+    /**
+     * Record that a reload was rejected by a full executor, and deferred.
+     */
+    static void deferred() {
+        DEFERRED_RELOADS.increment();
+    }
+
+    /**
+     * Get the number of reloads deferred because an executor was full.
+     *
+     * @return the number of deferred reloads
+     */
+    static long deferredReloads() {
+        return DEFERRED_RELOADS.sum();
+    }
+
+    /**
+     * An executor created by Confabricate, which may be shut down when
+     * replaced.
+     */
+    private static final class Isolated extends ThreadPoolExecutor {
+
+        Isolated(final String owner, final ReloadDispatch settings) {
+            super(
+                settings.threads(),
+                settings.threads(),
+                30,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(settings.queueCapacity()),
+                new Factory(owner, settings.priority()),
+                new ThreadPoolExecutor.AbortPolicy()
+            );
+            this.allowCoreThreadTimeOut(true);
+        }
+
+    }
+
+    private static final class Factory implements ThreadFactory {
+
+        private final String owner;
+        private final int priority;
+        private final AtomicInteger threadId = new AtomicInteger();
+
+        Factory(final String owner, final int priority) {
+            this.owner = owner;
+            this.priority = priority;
+        }
+
+        @Override
+        public Thread newThread(final Runnable task) {
+            final Thread thread = new Thread(task, "Confabricate reloader (" + this.owner + ") #" + this.threadId.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setPriority(this.priority);
+            return thread;
+        }
+
+    }
+
+}
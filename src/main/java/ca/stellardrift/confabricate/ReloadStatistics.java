@@ -0,0 +1,47 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+/**
+ * Totals covering every load of a Confabricate-managed file.
+ *
+ * @param loads the number of loads, including initial loads
+ * @param nodesReused the number of existing nodes kept by reloads merged
+ *     into the previous tree
+ * @param nodesCreated the number of nodes created, either in a new tree
+ *     or when merging into the previous tree
+ * @param nodesRemoved the number of nodes removed from previous trees
+ * @param bytesAllocated the bytes allocated by loading threads while
+ *     loading, or {@code -1} if the JVM cannot measure allocations
+ * @see Statistics#loads()
+ * @since 3.0.0
+ */
+public record ReloadStatistics(long loads, long nodesReused, long nodesCreated, long nodesRemoved, long bytesAllocated) {
+
+    /**
+     * Get the average bytes allocated per load.
+     *
+     * @return the average allocation, or {@code -1} if unknown
+     * @since 3.0.0
+     */
+    public long bytesPerLoad() {
+        if (this.bytesAllocated == -1 || this.loads == 0) {
+            return -1;
+        }
+        return this.bytesAllocated / this.loads;
+    }
+
+}
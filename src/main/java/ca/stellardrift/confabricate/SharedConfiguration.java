@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import java.util.concurrent.CompletableFuture;
+import org.spongepowered.configurate.ScopedConfigurationNode;
+import org.spongepowered.configurate.reactive.Disposable;
+import org.spongepowered.configurate.reference.ConfigurationReference;
+import org.spongepowered.configurate.util.CheckedConsumer;
+import org.spongepowered.configurate.util.MapFactories;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A copy-on-write view of a configuration reference, safe to read from any
+ * number of threads while the reference reloads.
+ *
+ * <p>Readers share a single published tree, which is a copy of the
+ * reference's node and is never modified once published. Reading it takes
+ * no locks: fetching the tree is a single volatile read, and its map nodes
+ * are backed by concurrent maps rather than synchronized ones. A reader
+ * that holds on to a tree keeps seeing a consistent configuration, even
+ * while a newer tree is published.</p>
+ *
+ * <p>A new tree is published whenever the reference reloads, and when
+ * changes are made through {@link #update(CheckedConsumer)}. Published
+ * trees must not be modified. Since they do not keep the order of map
+ * keys, they should also not be saved.</p>
+ *
+ * <p>For references to Confabricate-managed files, changes and copies of
+ * the reference's node hold the same lock as the file's loader, which
+ * Confabricate's own reloads hold until the reloaded tree is published. A
+ * change therefore never applies to a tree that a concurrent reload is
+ * replacing or merging into, and a published tree is never copied from a
+ * tree in the middle of a merge. Reloading such a reference directly with
+ * {@link ConfigurationReference#load()} only holds the lock while the file
+ * is loaded, not while the result is published.</p>
+ *
+ * @param <N> node type
+ * @since 3.0.0
+ */
+public final class SharedConfiguration<N extends ScopedConfigurationNode<N>> implements AutoCloseable {
+
+    private final ConfigurationReference<N> reference;
+    // serializes publishing, and is shared with reloads of managed files
+    private final Object writeLock;
+    private final Disposable subscription;
+    private volatile N published;
+
+    /**
+     * Create a shared view of the provided reference.
+     *
+     * @param reference the reference to share
+     * @param <N> node type
+     * @return a new shared view
+     * @since 3.0.0
+     */
+    public static <N extends ScopedConfigurationNode<N>> SharedConfiguration<N> of(final ConfigurationReference<N> reference) {
+        return new SharedConfiguration<>(requireNonNull(reference, "reference"));
+    }
+
+    private SharedConfiguration(final ConfigurationReference<N> reference) {
+        this.reference = reference;
+        this.writeLock = reference.loader() instanceof ManagedLoader managed ? managed.lock() : new Object();
+        synchronized (this.writeLock) {
+            // updates are delivered asynchronously, so always publish the latest node
+            this.subscription = reference.updates().subscribe(node -> this.refresh());
+            this.published = this.freeze(reference.node());
+        }
+    }
+
+    /**
+     * Get the reference this view is shared from.
+     *
+     * @return the underlying reference
+     * @since 3.0.0
+     */
+    public ConfigurationReference<N> reference() {
+        return this.reference;
+    }
+
+    /**
+     * Get the currently published tree.
+     *
+     * <p>The tree must not be modified.</p>
+     *
+     * @return the root of the published tree
+     * @since 3.0.0
+     */
+    public N node() {
+        return this.published;
+    }
+
+    /**
+     * Get a node from the currently published tree.
+     *
+     * <p>Several reads that must agree with each other should instead read
+     * from one tree returned by {@link #node()}.</p>
+     *
+     * @param path the path of the node
+     * @return the node at the path
+     * @since 3.0.0
+     */
+    public N node(final Object... path) {
+        return this.published.node(path);
+    }
+
+    /**
+     * Change the configuration, then publish and save the result.
+     *
+     * <p>The change is applied to the reference's own node, so it is kept
+     * across later publishes. Changes are applied one at a time, and
+     * readers only see them once the whole change has been applied.</p>
+     *
+     * @param change the change to apply
+     * @param <E> exception type thrown by the change
+     * @return a future completing once the change has been saved
+     * @throws E if thrown by the change, in which case nothing is
+     *     published or saved
+     * @since 3.0.0
+     */
+    public <E extends Exception> CompletableFuture<Void> update(final CheckedConsumer<? super N, E> change) throws E {
+        synchronized (this.writeLock) {
+            final N live = this.reference.node();
+            change.accept(live);
+            this.published = this.freeze(live);
+        }
+        return Confabricate.saveAsync(this.reference);
+    }
+
+    /**
+     * Publish the reference's current node.
+     *
+     * <p>This is only necessary after modifying the reference's node
+     * directly, rather than through {@link #update(CheckedConsumer)}.</p>
+     *
+     * @since 3.0.0
+     */
+    public void refresh() {
+        synchronized (this.writeLock) {
+            this.published = this.freeze(this.reference.node());
+        }
+    }
+
+    /**
+     * Stop publishing reloads of the reference.
+     *
+     * <p>The last published tree remains available.</p>
+     *
+     * @since 3.0.0
+     */
+    @Override
+    public void close() {
+        synchronized (this.writeLock) {
+            this.subscription.dispose();
+        }
+    }
+
+    private N freeze(final N node) {
+        return this.reference.loader()
+            .createNode(node.options().mapFactory(MapFactories.unordered()))
+            .from(node);
+    }
+
+}
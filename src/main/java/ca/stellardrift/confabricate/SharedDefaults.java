@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import io.leangen.geantyref.TypeToken;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.CommentedConfigurationNode;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.ConfigurationOptions;
+import org.spongepowered.configurate.serialize.SerializationException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A defaults tree shared between any number of loaded configurations.
+ *
+ * <p>With {@link ConfigurationOptions#shouldCopyDefaults() copied defaults},
+ * every loaded configuration holds its own copy of every default value.
+ * Configurations loaded with shared defaults instead only hold the values
+ * present in their file, and unset values are read through to this single
+ * tree. A value is only copied into a configuration once it is written
+ * there, so many copies of a large configuration, such as one per world,
+ * only cost the memory of the values they change.</p>
+ *
+ * <p>Files still contain every default: when a configuration is saved, the
+ * defaults are merged into the copy that is written, rather than into the
+ * loaded node.</p>
+ *
+ * <p>The defaults tree is shared between all readers, and must not be
+ * modified.</p>
+ *
+ * @since 3.0.0
+ */
+public final class SharedDefaults {
+
+    private final ConfigurationNode defaults;
+
+    /**
+     * Share a copy of the provided defaults.
+     *
+     * @param defaults the default values
+     * @return shared defaults
+     * @since 3.0.0
+     */
+    public static SharedDefaults of(final ConfigurationNode defaults) {
+        requireNonNull(defaults, "defaults");
+        final ConfigurationOptions options = defaults.options().shouldCopyDefaults(false);
+        return new SharedDefaults(CommentedConfigurationNode.root(options).from(defaults));
+    }
+
+    /**
+     * Share the serialized form of a default object.
+     *
+     * <p>This is typically a newly constructed instance of an
+     * {@link org.spongepowered.configurate.objectmapping.ConfigSerializable object-mapped}
+     * configuration class.</p>
+     *
+     * @param type the type of the default object
+     * @param defaults the default object
+     * @param options the options to serialize with
+     * @param <T> the type of the default object
+     * @return shared defaults
+     * @throws SerializationException if the defaults could not be serialized
+     * @since 3.0.0
+     */
+    public static <T> SharedDefaults of(final TypeToken<T> type, final T defaults, final ConfigurationOptions options) throws SerializationException {
+        final CommentedConfigurationNode node = CommentedConfigurationNode.root(options.shouldCopyDefaults(false));
+        node.set(type, requireNonNull(defaults, "defaults"));
+        return new SharedDefaults(node);
+    }
+
+    private SharedDefaults(final ConfigurationNode defaults) {
+        this.defaults = defaults;
+    }
+
+    /**
+     * Get the shared defaults tree.
+     *
+     * @return the defaults
+     * @since 3.0.0
+     */
+    public ConfigurationNode node() {
+        return this.defaults;
+    }
+
+    /**
+     * Adjust options for configurations using these defaults.
+     *
+     * <p>Defaults are no longer copied into loaded nodes. Implicit
+     * initialization is unaffected, so object-mapped values still receive
+     * their defaults when deserialized.</p>
+     *
+     * @param options the options to adjust
+     * @return adjusted options
+     * @since 3.0.0
+     */
+    public ConfigurationOptions options(final ConfigurationOptions options) {
+        return options.shouldCopyDefaults(false);
+    }
+
+    /**
+     * Resolve a node in a loaded configuration, falling back to the default.
+     *
+     * <p>Resolution is per path: a section present in the loaded
+     * configuration is returned as-is, even if it lacks some of the default
+     * children, which can be resolved individually.</p>
+     *
+     * @param loaded the loaded configuration
+     * @param path the path to resolve
+     * @return the loaded node if present, otherwise the default node
+     * @since 3.0.0
+     */
+    public ConfigurationNode node(final ConfigurationNode loaded, final Object... path) {
+        final ConfigurationNode node = loaded.node(path);
+        return node.virtual() ? this.defaults.node(path) : node;
+    }
+
+    /**
+     * Resolve and deserialize a value, falling back to the default.
+     *
+     * @param loaded the loaded configuration
+     * @param type the type of value
+     * @param path the path to resolve
+     * @param <V> value type
+     * @return the value, or {@code null} if neither the configuration nor
+     *     the defaults hold the path
+     * @throws SerializationException if the value could not be deserialized
+     * @since 3.0.0
+     */
+    public <V> @Nullable V get(final ConfigurationNode loaded, final TypeToken<V> type, final Object... path) throws SerializationException {
+        return this.node(loaded, path).get(type);
+    }
+
+    /**
+     * Fill in every unset value in a node from the defaults.
+     *
+     * @param node the node to fill in, which must not be shared
+     */
+    void mergeInto(final ConfigurationNode node) {
+        node.mergeFrom(this.defaults);
+    }
+
+}
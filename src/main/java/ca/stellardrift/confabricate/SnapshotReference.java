@@ -0,0 +1,235 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import io.leangen.geantyref.TypeToken;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.ScopedConfigurationNode;
+import org.spongepowered.configurate.loader.ConfigurationLoader;
+import org.spongepowered.configurate.reactive.Disposable;
+import org.spongepowered.configurate.serialize.SerializationException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A reference to a configuration file deserialized as a single object.
+ *
+ * <p>Each load reads the file into a new node tree and deserializes it on a
+ * worker thread. Only once both steps succeed is the result published,
+ * replacing the node and value together with a single write. Readers never
+ * block, and never observe a partially loaded configuration. If a load
+ * fails, the previous snapshot stays in place.</p>
+ *
+ * <p>Published nodes and values are shared between all readers, and must
+ * not be modified. To change the configuration, {@link #save(Object) save}
+ * a new value.</p>
+ *
+ * @param <N> node type
+ * @param <T> value type
+ * @since 3.0.0
+ */
+public final class SnapshotReference<N extends ScopedConfigurationNode<N>, T> implements Supplier<T>, AutoCloseable {
+
+    private final ConfigurationLoader<N> loader;
+    private final TypeToken<T> type;
+    private final Executor executor;
+    private final List<Consumer<? super T>> listeners = new CopyOnWriteArrayList<>();
+    private final List<Disposable> closeables = new CopyOnWriteArrayList<>();
+    // serializes loads and saves, so snapshots are published in order
+    private final Object writeLock = new Object();
+    private volatile Snapshot<N, T> snapshot;
+
+    /**
+     * Create and load a new snapshot reference.
+     *
+     * @param loader the loader to read and write with
+     * @param type the type of value to deserialize
+     * @param executor the executor to perform reloads on
+     * @param <N> node type
+     * @param <T> value type
+     * @return a loaded reference
+     * @throws ConfigurateException if the initial load fails
+     * @since 3.0.0
+     */
+    public static <N extends ScopedConfigurationNode<N>, T> SnapshotReference<N, T> create(
+        final ConfigurationLoader<N> loader,
+        final TypeToken<T> type,
+        final Executor executor
+    ) throws ConfigurateException {
+        return new SnapshotReference<>(
+            requireNonNull(loader, "loader"),
+            requireNonNull(type, "type"),
+            requireNonNull(executor, "executor")
+        );
+    }
+
+    private SnapshotReference(final ConfigurationLoader<N> loader, final TypeToken<T> type, final Executor executor) throws ConfigurateException {
+        this.loader = loader;
+        this.type = type;
+        this.executor = executor;
+        this.snapshot = this.read();
+    }
+
+    /**
+     * Get the current value.
+     *
+     * @return the current value
+     * @since 3.0.0
+     */
+    @Override
+    public T get() {
+        return this.snapshot.value();
+    }
+
+    /**
+     * Get the node the current value was deserialized from.
+     *
+     * @return the current node
+     * @since 3.0.0
+     */
+    public N node() {
+        return this.snapshot.node();
+    }
+
+    /**
+     * Register a listener to receive every newly published value.
+     *
+     * <p>Listeners are called on the thread that published the value.</p>
+     *
+     * @param listener the listener
+     * @since 3.0.0
+     */
+    public void onPublish(final Consumer<? super T> listener) {
+        this.listeners.add(requireNonNull(listener, "listener"));
+    }
+
+    /**
+     * Reload the configuration on this reference's executor.
+     *
+     * @return a future completing with the newly published value
+     * @since 3.0.0
+     */
+    public CompletableFuture<T> reload() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.load();
+            } catch (final ConfigurateException ex) {
+                throw new CompletionException(ex);
+            }
+        }, this.executor);
+    }
+
+    /**
+     * Reload the configuration on the calling thread.
+     *
+     * @return the newly published value
+     * @throws ConfigurateException if the file could not be read or
+     *     deserialized
+     * @since 3.0.0
+     */
+    public T load() throws ConfigurateException {
+        synchronized (this.writeLock) {
+            return this.publish(this.read());
+        }
+    }
+
+    /**
+     * Save the current node.
+     *
+     * @throws ConfigurateException if the node could not be written
+     * @since 3.0.0
+     */
+    public void save() throws ConfigurateException {
+        synchronized (this.writeLock) {
+            this.loader.save(this.snapshot.node());
+        }
+    }
+
+    /**
+     * Save a new value, and publish it once it has been written.
+     *
+     * @param value the new value
+     * @throws ConfigurateException if the value could not be serialized or
+     *     written
+     * @since 3.0.0
+     */
+    public void save(final T value) throws ConfigurateException {
+        requireNonNull(value, "value");
+        synchronized (this.writeLock) {
+            final N node = this.snapshot.node().copy();
+            node.set(this.type, value);
+            this.loader.save(node);
+            this.publish(new Snapshot<>(node, value));
+        }
+    }
+
+    /**
+     * Stop any automatic reloads, such as from watching the file.
+     *
+     * <p>The current snapshot remains available, and can still be reloaded
+     * and saved manually.</p>
+     *
+     * @since 3.0.0
+     */
+    @Override
+    public void close() {
+        for (final Disposable closeable : this.closeables) {
+            closeable.dispose();
+        }
+        this.closeables.clear();
+    }
+
+    /**
+     * Dispose of a resource when this reference is closed.
+     *
+     * @param closeable the resource
+     */
+    void closeWith(final Disposable closeable) {
+        this.closeables.add(closeable);
+    }
+
+    private Snapshot<N, T> read() throws ConfigurateException {
+        final N node = this.loader.load();
+        final @Nullable T value = node.get(this.type);
+        if (value == null) {
+            throw new SerializationException(node, this.type.getType(), "Configuration deserialized to null");
+        }
+        return new Snapshot<>(node, value);
+    }
+
+    private T publish(final Snapshot<N, T> snapshot) {
+        this.snapshot = snapshot;
+        for (final Consumer<? super T> listener : this.listeners) {
+            try {
+                listener.accept(snapshot.value());
+            } catch (final RuntimeException ex) {
+                Confabricate.LOGGER.error("Error while notifying listener of configuration change", ex);
+            }
+        }
+        return snapshot.value();
+    }
+
+    private record Snapshot<N, T>(N node, T value) {}
+
+}
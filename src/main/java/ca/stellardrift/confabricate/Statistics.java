@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Totals describing the work Confabricate has done, and the work it has
+ * avoided, since the game started.
+ *
+ * <p>Each total covers every Confabricate-managed configuration. The
+ * system properties tuning the behaviour behind them are listed in the
+ * project's README.</p>
+ *
+ * @param loads totals covering every load of a managed file
+ * @param skippedReloads the number of reloads skipped because the file's
+ *     contents had not changed, including after our own saves
+ * @param coalescedWatchEvents the number of file watch events merged into
+ *     another event's reload, while waiting for a quiet period after a
+ *     change
+ * @param deferredReloads the number of reloads deferred because the owning
+ *     mod's executor was full
+ * @param skippedChangeNotifications the number of change notifications
+ *     skipped because a reload left the subscribed path unchanged
+ * @param polledFileChecks the number of file attribute checks made while
+ *     polling files that cannot be watched by the watch service
+ * @param skippedSaves the number of saves skipped because the file already
+ *     had the contents that would have been written
+ * @param coalescedSaves the number of asynchronous saves merged into a
+ *     later save of the same file
+ * @param parseCacheHits the number of loads read from the parse cache
+ *     rather than parsed
+ * @param parseCacheMisses the number of loads that found no usable parse
+ *     cache entry
+ * @param dataUpgradeCache statistics for the cache of values upgraded by
+ *     transform actions from
+ *     {@link Confabricate#createTransformAction(com.mojang.datafixers.DataFixer, com.mojang.datafixers.DSL.TypeReference, int, Object...)}
+ * @see Confabricate#statistics()
+ * @since 3.0.0
+ */
+public record Statistics(
+    ReloadStatistics loads,
+    long skippedReloads,
+    long coalescedWatchEvents,
+    long deferredReloads,
+    long skippedChangeNotifications,
+    long polledFileChecks,
+    long skippedSaves,
+    long coalescedSaves,
+    long parseCacheHits,
+    long parseCacheMisses,
+    CacheStats dataUpgradeCache
+) {
+
+    /**
+     * Collect the current totals.
+     *
+     * @return current statistics
+     */
+    static Statistics collect() {
+        return new Statistics(
+            ManagedLoader.reloadStatistics(),
+            ManagedLoader.skippedReloads(),
+            ReloadDebouncer.coalescedEvents(),
+            ReloadExecutors.deferredReloads(),
+            ConfigurationChanges.skippedNotifications(),
+            PollingWatcher.filesChecked(),
+            ManagedLoader.skippedSaves(),
+            WriteBehind.coalescedSaves(),
+            ParseCache.hits(),
+            ParseCache.misses(),
+            DataUpgrades.stats()
+        );
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import io.leangen.geantyref.TypeToken;
+import java.util.Map;
+import java.util.function.Function;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.NodePath;
+import org.spongepowered.configurate.ScopedConfigurationNode;
+import org.spongepowered.configurate.loader.ConfigurationLoader;
+import org.spongepowered.configurate.reactive.Disposable;
+import org.spongepowered.configurate.reactive.Processor;
+import org.spongepowered.configurate.reactive.Publisher;
+import org.spongepowered.configurate.reference.ConfigurationReference;
+import org.spongepowered.configurate.reference.ValueReference;
+import org.spongepowered.configurate.serialize.SerializationException;
+
+/**
+ * A configuration reference that stops watching its file once closed.
+ *
+ * <p>Reloads triggered by the watch that fail are published to
+ * {@link #errors()} in the {@link ErrorPhase#LOADING loading} phase, along
+ * with any errors from the underlying reference.</p>
+ *
+ * @param <N> node type
+ */
+final class WatchedReference<N extends ScopedConfigurationNode<N>> implements ConfigurationReference<N> {
+
+    private final ConfigurationReference<N> delegate;
+    private final Processor.Iso<Map.Entry<ErrorPhase, Throwable>> errors = Processor.create();
+    private final Disposable forwardedErrors;
+    private volatile @Nullable Disposable watch;
+
+    WatchedReference(final ConfigurationReference<N> delegate) {
+        this.delegate = delegate;
+        this.forwardedErrors = delegate.errors().subscribe(this.errors);
+    }
+
+    /**
+     * Attach the watch registration, disposed when this reference closes.
+     *
+     * @param watch the watch registration
+     */
+    void watchedBy(final Disposable watch) {
+        this.watch = watch;
+    }
+
+    /**
+     * Reload in response to a change to the file.
+     *
+     * @throws ConfigurateException if the reload fails, after publishing
+     *     the failure
+     */
+    void reload() throws ConfigurateException {
+        try {
+            this.load();
+        } catch (final ConfigurateException ex) {
+            this.errors.submit(Map.entry(ErrorPhase.LOADING, ex));
+            throw ex;
+        }
+    }
+
+    @Override
+    public void load() throws ConfigurateException {
+        if (this.delegate.loader() instanceof ManagedLoader managed) {
+            managed.reload(this.delegate);
+        } else {
+            this.delegate.load();
+        }
+    }
+
+    @Override
+    public void save() throws ConfigurateException {
+        this.delegate.save();
+    }
+
+    @Override
+    public void save(final ConfigurationNode newNode) throws ConfigurateException {
+        this.delegate.save(newNode);
+    }
+
+    @Override
+    public Publisher<N> saveAsync() {
+        return this.delegate.saveAsync();
+    }
+
+    @Override
+    public Publisher<N> updateAsync(final Function<N, ? extends N> updater) {
+        return this.delegate.updateAsync(updater);
+    }
+
+    @Override
+    public N node() {
+        return this.delegate.node();
+    }
+
+    @Override
+    public ConfigurationLoader<? extends N> loader() {
+        return this.delegate.loader();
+    }
+
+    @Override
+    public N get(final Object... path) {
+        return this.delegate.get(path);
+    }
+
+    @Override
+    public N get(final Iterable<?> path) {
+        return this.delegate.get(path);
+    }
+
+    @Override
+    public <T> ValueReference<T, N> referenceTo(final TypeToken<T> type, final NodePath path, final @Nullable T defaultValue)
+            throws SerializationException {
+        return this.delegate.referenceTo(type, path, defaultValue);
+    }
+
+    @Override
+    public <T> ValueReference<T, N> referenceTo(final Class<T> type, final NodePath path, final @Nullable T defaultValue)
+            throws SerializationException {
+        return this.delegate.referenceTo(type, path, defaultValue);
+    }
+
+    @Override
+    public Publisher<N> updates() {
+        return this.delegate.updates();
+    }
+
+    @Override
+    public Publisher<Map.Entry<ErrorPhase, Throwable>> errors() {
+        return this.errors;
+    }
+
+    @Override
+    public void close() {
+        final @Nullable Disposable watch = this.watch;
+        if (watch != null) {
+            watch.dispose();
+        }
+        this.forwardedErrors.dispose();
+        this.delegate.close();
+        this.errors.onClose();
+    }
+
+}
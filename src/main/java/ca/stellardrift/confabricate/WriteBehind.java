@@ -0,0 +1,309 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate;
+
+import com.google.errorprone.annotations.concurrent.GuardedBy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.ConfigurationNode;
+
+/**
+ * Writes managed files on a background thread.
+ *
+ * <p>Saves wait for a short delay before being written, and a save submitted
+ * while an earlier save of the same file is still waiting replaces it, so
+ * bursts of saves only write the file once. Synchronous saves are instead
+ * written immediately on the calling thread, replacing any waiting save of
+ * the same file. Each file is written to its own temporary file that is then
+ * moved over the original, so a crash never leaves a partially written
+ * configuration. Temporary files take the permissions of the file they
+ * replace.</p>
+ *
+ * <p>Unless the {@code confabricate.fsync} system property is set to
+ * {@code false}, temporary files are synced to disk before being moved,
+ * and the directories of every file in a batch are synced once the whole
+ * batch has been moved.</p>
+ */
+final class WriteBehind {
+
+    /**
+     * System property holding the delay before writing, in milliseconds.
+     */
+    static final String DELAY_PROPERTY = "confabricate.writeDelay";
+    static final long DELAY_MILLIS = Long.getLong(DELAY_PROPERTY, 50);
+
+    /**
+     * System property controlling whether written files are synced to disk.
+     */
+    static final String FSYNC_PROPERTY = "confabricate.fsync";
+    static final boolean FSYNC = Boolean.parseBoolean(System.getProperty(FSYNC_PROPERTY, "true"));
+
+    private static final LongAdder COALESCED_SAVES = new LongAdder();
+    private static final ScheduledExecutorService WRITER;
+    private static final Object LOCK = new Object();
+    // serializes batches, so a file is never written by two threads at once
+    private static final Object WRITE_LOCK = new Object();
+    @GuardedBy("LOCK")
+    private static final Map<ManagedLoader, Pending> PENDING = new LinkedHashMap<>();
+    @GuardedBy("LOCK")
+    private static boolean scheduled;
+
+    static {
+        final ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1, task -> {
+            final Thread thread = new Thread(task, "Confabricate writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        WRITER = writer;
+        Runtime.getRuntime().addShutdownHook(new Thread(WriteBehind::flush, "Confabricate writer shutdown"));
+    }
+
+    private WriteBehind() {
+    }
+
+    static long coalescedSaves() {
+        return COALESCED_SAVES.sum();
+    }
+
+    /**
+     * Queue a node to be written to a managed file.
+     *
+     * @param loader the loader to render and write with
+     * @param node a node that will not be modified while queued
+     * @return a future completing once the node has been written
+     */
+    static CompletableFuture<Void> submit(final ManagedLoader loader, final ConfigurationNode node) {
+        synchronized (LOCK) {
+            final @Nullable Pending existing = PENDING.get(loader);
+            if (existing != null) {
+                existing.node = node;
+                COALESCED_SAVES.increment();
+                return existing.future;
+            }
+
+            final Pending pending = new Pending(node);
+            PENDING.put(loader, pending);
+            if (!scheduled) {
+                scheduled = true;
+                WRITER.schedule(WriteBehind::flush, DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            return pending.future;
+        }
+    }
+
+    /**
+     * Write a node to a managed file on the calling thread, without waiting
+     * for the write delay.
+     *
+     * <p>A save of the same file that is still waiting is replaced by this
+     * one, and completes once this one has been written.</p>
+     *
+     * @param loader the loader to render and write with
+     * @param node a node that will not be modified while being written
+     * @return a future that has completed once the node has been written
+     */
+    static CompletableFuture<Void> writeNow(final ManagedLoader loader, final ConfigurationNode node) {
+        synchronized (WRITE_LOCK) {
+            final @Nullable Pending superseded;
+            synchronized (LOCK) {
+                superseded = PENDING.remove(loader);
+            }
+            final Pending pending;
+            if (superseded != null) {
+                superseded.node = node;
+                COALESCED_SAVES.increment();
+                pending = superseded;
+            } else {
+                pending = new Pending(node);
+            }
+            write(Map.of(loader, pending));
+            return pending.future;
+        }
+    }
+
+    /**
+     * Write every queued save on the calling thread.
+     */
+    static void flush() {
+        synchronized (WRITE_LOCK) {
+            final Map<ManagedLoader, Pending> batch;
+            synchronized (LOCK) {
+                batch = new LinkedHashMap<>(PENDING);
+                PENDING.clear();
+                scheduled = false;
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+        }
+    }
+
+    private static void write(final Map<ManagedLoader, Pending> batch) {
+        // render and write every file's temporary copy first
+        final List<Staged> staged = new ArrayList<>(batch.size());
+        for (final Map.Entry<ManagedLoader, Pending> entry : batch.entrySet()) {
+            final ManagedLoader loader = entry.getKey();
+            final Pending pending = entry.getValue();
+            try {
+                final ManagedLoader.@Nullable Rendered rendered = loader.prepare(pending.node);
+                if (rendered == null) {
+                    pending.future.complete(null);
+                    continue;
+                }
+                staged.add(new Staged(loader, pending, rendered, writeTemporary(loader.file(), rendered.contents())));
+            } catch (final ConfigurateException | RuntimeException ex) {
+                pending.future.completeExceptionally(ex);
+            }
+        }
+
+        // then move each into place
+        final List<Staged> moved = new ArrayList<>(staged.size());
+        final Set<Path> directories = new LinkedHashSet<>();
+        for (final Staged file : staged) {
+            final Path target = file.loader().file();
+            try {
+                moveOrDelete(file.temporary(), target);
+                file.loader().written(file.rendered().checksum());
+                final @Nullable Path parent = target.toAbsolutePath().getParent();
+                if (parent != null) {
+                    directories.add(parent);
+                }
+                moved.add(file);
+            } catch (final IOException ex) {
+                file.pending().future.completeExceptionally(new ConfigurateException(file.pending().node, ex));
+            }
+        }
+
+        // and only report success once the whole batch is durable
+        if (FSYNC) {
+            for (final Path directory : directories) {
+                syncDirectory(directory);
+            }
+        }
+        for (final Staged file : moved) {
+            file.pending().future.complete(null);
+        }
+    }
+
+    private static Path writeTemporary(final Path file, final byte[] contents) throws ConfigurateException {
+        @Nullable Path temporary = null;
+        try {
+            final Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            // several loaders may save the same file in one batch, so never share a temporary file
+            temporary = createTemporary(parent, file.getFileName().toString());
+            copyPermissions(file, temporary);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(contents);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (FSYNC) {
+                    channel.force(true);
+                }
+            }
+            return temporary;
+        } catch (final IOException ex) {
+            if (temporary != null) {
+                deleteQuietly(temporary);
+            }
+            throw new ConfigurateException(ex);
+        }
+    }
+
+    private static Path createTemporary(final Path directory, final String name) throws IOException {
+        while (true) {
+            final Path temporary = directory.resolve(name + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+            try {
+                // unlike Files.createTempFile, this gives the default permissions rather than owner-only ones
+                return Files.createFile(temporary);
+            } catch (final FileAlreadyExistsException ex) {
+                // try another name
+            }
+        }
+    }
+
+    private static void copyPermissions(final Path source, final Path target) throws IOException {
+        try {
+            Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source));
+        } catch (final NoSuchFileException | UnsupportedOperationException ex) {
+            // a new file keeps the default permissions, as do files on other file systems
+        }
+    }
+
+    private static void moveOrDelete(final Path source, final Path target) throws IOException {
+        try {
+            try {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException ex) {
+                Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (final IOException ex) {
+            deleteQuietly(source);
+            throw ex;
+        }
+    }
+
+    private static void deleteQuietly(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (final IOException ignored) {
+            // only a leftover temporary file
+        }
+    }
+
+    private static void syncDirectory(final Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (final IOException ex) {
+            // not every platform can open directories, and the files are already written
+        }
+    }
+
+    private static final class Pending {
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private volatile ConfigurationNode node;
+
+        Pending(final ConfigurationNode node) {
+            this.node = node;
+        }
+    }
+
+    private record Staged(ManagedLoader loader, Pending pending, ManagedLoader.Rendered rendered, Path temporary) {}
+
+}
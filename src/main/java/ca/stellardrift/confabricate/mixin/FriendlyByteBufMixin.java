@@ -0,0 +1,39 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate.mixin;
+
+import ca.stellardrift.confabricate.typeserializers.PreEncodedComponent;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.network.chat.Component;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+@Mixin(FriendlyByteBuf.class)
+public final class FriendlyByteBufMixin {
+
+    @Inject(method = "writeComponent", at = @At("HEAD"), cancellable = true)
+    private void writePreEncoded(final Component component, final CallbackInfoReturnable<FriendlyByteBuf> cir) {
+        if (component instanceof final PreEncodedComponent encoded) {
+            final FriendlyByteBuf self = (FriendlyByteBuf) (Object) this;
+            if (encoded.writeEncoded(self)) {
+                cir.setReturnValue(self);
+            }
+        }
+    }
+
+}
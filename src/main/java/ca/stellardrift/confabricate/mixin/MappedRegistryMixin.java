@@ -0,0 +1,37 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate.mixin;
+
+import ca.stellardrift.confabricate.typeserializers.MinecraftSerializers;
+import java.util.List;
+import java.util.Map;
+import net.minecraft.core.Holder;
+import net.minecraft.core.MappedRegistry;
+import net.minecraft.tags.TagKey;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(MappedRegistry.class)
+public abstract class MappedRegistryMixin<T> {
+
+    @Inject(method = "bindTags", at = @At("TAIL"))
+    private void invalidateHolders(final Map<TagKey<T>, List<Holder<T>>> tags, final CallbackInfo ci) {
+        MinecraftSerializers.invalidateHolders();
+    }
+
+}
@@ -15,45 +15,128 @@
  */
 package ca.stellardrift.confabricate.typeserializers;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gson.JsonElement;
+import com.mojang.logging.LogUtils;
 import com.mojang.serialization.JsonOps;
+import io.leangen.geantyref.GenericTypeReflector;
 import java.lang.reflect.Type;
+import java.util.concurrent.ExecutionException;
 import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.network.chat.Style;
 import net.minecraft.network.chat.TextComponent;
+import net.minecraft.network.chat.TranslatableComponent;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
 import org.spongepowered.configurate.ConfigurationNode;
 import org.spongepowered.configurate.ConfigurationOptions;
 import org.spongepowered.configurate.serialize.SerializationException;
 import org.spongepowered.configurate.serialize.TypeSerializer;
 
 import static ca.stellardrift.confabricate.typeserializers.MinecraftSerializers.opsFor;
+import static java.util.Objects.requireNonNull;
 
 final class ComponentSerializer implements TypeSerializer<Component> {
 
     static final TypeSerializer<Component> INSTANCE = new ComponentSerializer();
 
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    /**
+     * Maximum number of parsed JSON strings to retain.
+     */
+    private static final int PARSE_CACHE_SIZE = 2048;
+
+    // Components are mutable, so cached instances never escape -- callers get a copy
+    private static final Cache<String, Component> PARSE_CACHE = CacheBuilder.newBuilder()
+        .maximumSize(PARSE_CACHE_SIZE)
+        .recordStats()
+        .build();
+
     private ComponentSerializer() {}
 
+    static CacheStats parseCacheStats() {
+        return PARSE_CACHE.stats();
+    }
+
     @Override
     public Component deserialize(final @NonNull Type type, final @NonNull ConfigurationNode value) throws SerializationException {
+        final @Nullable Component component = this.read(value);
+        if (component != null && GenericTypeReflector.erase(type) == PreEncodedComponent.class) {
+            return PreEncodedComponent.of(component);
+        }
+        return component;
+    }
+
+    private @Nullable Component read(final ConfigurationNode value) throws SerializationException {
         if (value.isMap() || value.isList()) {
-            final JsonElement element = opsFor(value).convertTo(JsonOps.INSTANCE, value);
-            return Component.Serializer.fromJson(element);
+            final @Nullable Component direct = DirectComponentCodec.read(value);
+            if (direct == null) {
+                return this.viaJson(value);
+            } else if (DirectComponentCodec.VERIFY) {
+                final Component vanilla = this.viaJson(value);
+                if (!direct.equals(vanilla)) {
+                    LOGGER.warn("Component decoded at {} differs from vanilla parsing; direct: {}, vanilla: {}", value.path(), direct, vanilla);
+                    return vanilla;
+                }
+            }
+            return direct;
         } else {
             final String text = value.getString();
             if (text == null) {
                 return null;
             }
             if (text.startsWith("{")) { // Legacy format as JSON
-                return Component.Serializer.fromJson(text);
+                return parseJson(text);
             } else {
+                // a new component is as cheap as copying a cached one
                 return new TextComponent(text);
             }
         }
     }
 
+    private static Component parseJson(final String text) throws SerializationException {
+        final Component parsed;
+        try {
+            parsed = PARSE_CACHE.get(text, () -> requireNonNull(Component.Serializer.fromJson(text), "parsed"));
+        } catch (final ExecutionException | UncheckedExecutionException ex) {
+            Throwables.throwIfUnchecked(ex.getCause());
+            throw new SerializationException(ex.getCause());
+        }
+        return deepCopy(parsed);
+    }
+
+    private static MutableComponent deepCopy(final Component component) {
+        final MutableComponent ret;
+        if (component instanceof final TranslatableComponent translatable) {
+            final Object[] args = translatable.getArgs().clone();
+            for (int i = 0; i < args.length; ++i) {
+                if (args[i] instanceof final Component arg) {
+                    args[i] = deepCopy(arg);
+                }
+            }
+            ret = new TranslatableComponent(translatable.getKey(), args);
+        } else {
+            ret = component.plainCopy();
+        }
+        ret.setStyle(component.getStyle());
+        for (final Component sibling : component.getSiblings()) {
+            ret.append(deepCopy(sibling));
+        }
+        return ret;
+    }
+
+    private Component viaJson(final ConfigurationNode value) {
+        final JsonElement element = opsFor(value).convertTo(JsonOps.INSTANCE, value);
+        return Component.Serializer.fromJson(element);
+    }
+
     @Override
     public void serialize(
         final @NonNull Type type,
@@ -65,6 +148,11 @@ final class ComponentSerializer implements TypeSerializer<Component> {
             return;
         }
 
+        if (obj instanceof final PreEncodedComponent encoded) {
+            this.serialize(type, encoded.component(), value);
+            return;
+        }
+
         if (obj instanceof final TextComponent text) {
             if (text.getSiblings().isEmpty() && text.getStyle().equals(Style.EMPTY)) {
                 value.raw(text.getContents());
@@ -72,12 +160,15 @@ final class ComponentSerializer implements TypeSerializer<Component> {
             }
         }
 
-        value.from(JsonOps.INSTANCE.convertTo(opsFor(value), Component.Serializer.toJsonTree(obj)));
+        if (!DirectComponentCodec.write(obj, value)) {
+            value.from(JsonOps.INSTANCE.convertTo(opsFor(value), Component.Serializer.toJsonTree(obj)));
+        }
     }
 
     @Override
     public Component emptyValue(final Type specificType, final ConfigurationOptions options) {
-        return new TextComponent("");
+        final Component empty = new TextComponent("");
+        return GenericTypeReflector.erase(specificType) == PreEncodedComponent.class ? PreEncodedComponent.of(empty) : empty;
     }
 
 }
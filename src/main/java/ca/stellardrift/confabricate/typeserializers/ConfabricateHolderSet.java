@@ -36,19 +36,27 @@ import org.spongepowered.configurate.serialize.SerializationException;
  *
  * @param <V> element type
  */
-final class ConfabricateHolderSet<V> extends HolderSet.ListBacked<V> {
+final class ConfabricateHolderSet<V> extends HolderSet.ListBacked<V> implements HolderResolution.Resolvable {
 
     private final List<TagEntry<V>> serializedForm;
     private final Supplier<Registry<V>> elementResolver;
     @LazyInit private volatile List<Holder<V>> values;
 
     /**
-     * Create a new lazily initialized tag.
+     * Create a new lazily initialized tag, tracked for bulk resolution.
      *
      * @param serializedForm serialized form of the tag
      * @param elementResolver element-based resolver
+     * @param <V> element type
+     * @return a new tag
      */
-    ConfabricateHolderSet(final List<TagEntry<V>> serializedForm, final Supplier<Registry<V>> elementResolver) {
+    static <V> ConfabricateHolderSet<V> create(final List<TagEntry<V>> serializedForm, final Supplier<Registry<V>> elementResolver) {
+        final ConfabricateHolderSet<V> set = new ConfabricateHolderSet<>(serializedForm, elementResolver);
+        HolderResolution.trackHolderSet(set);
+        return set;
+    }
+
+    private ConfabricateHolderSet(final List<TagEntry<V>> serializedForm, final Supplier<Registry<V>> elementResolver) {
         this.serializedForm = List.copyOf(serializedForm);
         this.elementResolver = elementResolver;
     }
@@ -68,6 +76,16 @@ final class ConfabricateHolderSet<V> extends HolderSet.ListBacked<V> {
         return builder.build();
     }
 
+    @Override
+    public void refresh() {
+        this.values = this.resolve();
+    }
+
+    @Override
+    public void invalidate() {
+        this.values = null;
+    }
+
     @Override
     public List<Holder<V>> contents() {
         List<Holder<V>> values = this.values;
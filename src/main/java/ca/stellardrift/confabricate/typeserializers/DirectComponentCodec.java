@@ -0,0 +1,441 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate.typeserializers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.minecraft.ChatFormatting;
+import net.minecraft.ResourceLocationException;
+import net.minecraft.network.chat.ClickEvent;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.KeybindComponent;
+import net.minecraft.network.chat.MutableComponent;
+import net.minecraft.network.chat.Style;
+import net.minecraft.network.chat.TextColor;
+import net.minecraft.network.chat.TextComponent;
+import net.minecraft.network.chat.TranslatableComponent;
+import net.minecraft.resources.ResourceLocation;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.ConfigurationNode;
+
+/**
+ * Converts between configuration nodes and {@link Component Components}
+ * without an intermediate Gson tree.
+ *
+ * <p>This handles the common subset of the component format: text,
+ * translatable and keybind components, their children, and all style
+ * properties except hover events. Both directions return {@code null} or
+ * {@code false} for anything else, so callers can fall back to vanilla's
+ * JSON serializer.</p>
+ *
+ * <p>Results are meant to be identical to vanilla's parsing. Set the system
+ * property {@value #VERIFY_PROPERTY} to {@code true} to check every decoded
+ * component against vanilla and log any differences.</p>
+ */
+final class DirectComponentCodec {
+
+    static final String VERIFY_PROPERTY = "confabricate.verifyComponents";
+    static final boolean VERIFY = Boolean.getBoolean(VERIFY_PROPERTY);
+
+    private static final String TEXT = "text";
+    private static final String TRANSLATE = "translate";
+    private static final String WITH = "with";
+    private static final String KEYBIND = "keybind";
+    private static final String EXTRA = "extra";
+
+    private static final String COLOR = "color";
+    private static final String BOLD = "bold";
+    private static final String ITALIC = "italic";
+    private static final String UNDERLINED = "underlined";
+    private static final String STRIKETHROUGH = "strikethrough";
+    private static final String OBFUSCATED = "obfuscated";
+    private static final String INSERTION = "insertion";
+    private static final String FONT = "font";
+    private static final String CLICK_EVENT = "clickEvent";
+    private static final String CLICK_ACTION = "action";
+    private static final String CLICK_VALUE = "value";
+
+    private static final Set<Object> KNOWN_KEYS = Set.of(
+        TEXT, TRANSLATE, WITH, KEYBIND, EXTRA,
+        COLOR, BOLD, ITALIC, UNDERLINED, STRIKETHROUGH, OBFUSCATED, INSERTION, FONT, CLICK_EVENT
+    );
+
+    // only setting these to true is expressible through Style's public API
+    private static final Map<String, ChatFormatting> TRUE_ONLY_FORMATS = Map.of(
+        UNDERLINED, ChatFormatting.UNDERLINE,
+        STRIKETHROUGH, ChatFormatting.STRIKETHROUGH,
+        OBFUSCATED, ChatFormatting.OBFUSCATED
+    );
+
+    private DirectComponentCodec() {}
+
+    /**
+     * Read a component from a node.
+     *
+     * @param node the node to read
+     * @return a component, or {@code null} if the node uses features not
+     *     handled by this codec
+     */
+    static @Nullable MutableComponent read(final ConfigurationNode node) {
+        if (node.isList()) {
+            final List<? extends ConfigurationNode> children = node.childrenList();
+            if (children.isEmpty()) {
+                return null;
+            }
+            final @Nullable MutableComponent first = read(children.get(0));
+            if (first == null) {
+                return null;
+            }
+            for (int i = 1; i < children.size(); ++i) {
+                final @Nullable MutableComponent sibling = read(children.get(i));
+                if (sibling == null) {
+                    return null;
+                }
+                first.append(sibling);
+            }
+            return first;
+        } else if (node.isMap()) {
+            return readObject(node);
+        } else {
+            final @Nullable Object raw = node.rawScalar();
+            return raw == null ? null : new TextComponent(raw.toString());
+        }
+    }
+
+    private static @Nullable MutableComponent readObject(final ConfigurationNode node) {
+        final Map<Object, ? extends ConfigurationNode> children = node.childrenMap();
+        for (final Object key : children.keySet()) {
+            if (!KNOWN_KEYS.contains(key)) {
+                return null;
+            }
+        }
+
+        // Same precedence as vanilla
+        final MutableComponent ret;
+        if (children.containsKey(TEXT)) {
+            final @Nullable String text = scalarString(children.get(TEXT));
+            if (text == null) {
+                return null;
+            }
+            ret = new TextComponent(text);
+        } else if (children.containsKey(TRANSLATE)) {
+            final @Nullable String key = scalarString(children.get(TRANSLATE));
+            if (key == null) {
+                return null;
+            }
+            final @Nullable ConfigurationNode with = children.get(WITH);
+            if (with == null) {
+                ret = new TranslatableComponent(key);
+            } else {
+                if (!with.isList()) {
+                    return null;
+                }
+                final List<? extends ConfigurationNode> argNodes = with.childrenList();
+                final Object[] args = new Object[argNodes.size()];
+                for (int i = 0; i < args.length; ++i) {
+                    final ConfigurationNode argNode = argNodes.get(i);
+                    final @Nullable MutableComponent arg = read(argNode);
+                    if (arg == null) {
+                        return null;
+                    }
+                    // vanilla unwraps plain text arguments, but its style check never matches styles read from an object
+                    if (!argNode.isMap() && arg instanceof final TextComponent text && text.getStyle().isEmpty() && text.getSiblings().isEmpty()) {
+                        args[i] = text.getText();
+                    } else {
+                        args[i] = arg;
+                    }
+                }
+                ret = new TranslatableComponent(key, args);
+            }
+        } else if (children.containsKey(KEYBIND)) {
+            final @Nullable String key = scalarString(children.get(KEYBIND));
+            if (key == null) {
+                return null;
+            }
+            ret = new KeybindComponent(key);
+        } else {
+            return null;
+        }
+
+        final @Nullable ConfigurationNode extra = children.get(EXTRA);
+        if (extra != null) {
+            if (!extra.isList() || extra.childrenList().isEmpty()) {
+                return null;
+            }
+            for (final ConfigurationNode child : extra.childrenList()) {
+                final @Nullable MutableComponent sibling = read(child);
+                if (sibling == null) {
+                    return null;
+                }
+                ret.append(sibling);
+            }
+        }
+
+        final @Nullable Style style = readStyle(children);
+        if (style == null) {
+            return null;
+        }
+        return ret.setStyle(style);
+    }
+
+    private static @Nullable Style readStyle(final Map<Object, ? extends ConfigurationNode> children) {
+        Style style = Style.EMPTY;
+
+        final @Nullable ConfigurationNode color = children.get(COLOR);
+        if (color != null) {
+            final @Nullable String colorName = scalarString(color);
+            final @Nullable TextColor parsed = colorName == null ? null : TextColor.parseColor(colorName);
+            if (parsed == null) {
+                return null;
+            }
+            style = style.withColor(parsed);
+        }
+
+        final @Nullable ConfigurationNode bold = children.get(BOLD);
+        if (bold != null) {
+            if (!(bold.rawScalar() instanceof final Boolean value)) {
+                return null;
+            }
+            style = style.withBold(value);
+        }
+
+        final @Nullable ConfigurationNode italic = children.get(ITALIC);
+        if (italic != null) {
+            if (!(italic.rawScalar() instanceof final Boolean value)) {
+                return null;
+            }
+            style = style.withItalic(value);
+        }
+
+        for (final Map.Entry<String, ChatFormatting> format : TRUE_ONLY_FORMATS.entrySet()) {
+            final @Nullable ConfigurationNode flag = children.get(format.getKey());
+            if (flag != null) {
+                if (!Boolean.TRUE.equals(flag.rawScalar())) {
+                    return null;
+                }
+                style = style.applyFormat(format.getValue());
+            }
+        }
+
+        final @Nullable ConfigurationNode insertion = children.get(INSERTION);
+        if (insertion != null) {
+            final @Nullable String value = scalarString(insertion);
+            if (value == null) {
+                return null;
+            }
+            style = style.withInsertion(value);
+        }
+
+        final @Nullable ConfigurationNode font = children.get(FONT);
+        if (font != null) {
+            final @Nullable String value = scalarString(font);
+            if (value == null) {
+                return null;
+            }
+            try {
+                style = style.withFont(new ResourceLocation(value));
+            } catch (final ResourceLocationException ex) {
+                return null;
+            }
+        }
+
+        final @Nullable ConfigurationNode click = children.get(CLICK_EVENT);
+        if (click != null) {
+            if (!click.isMap()) {
+                return null;
+            }
+            final @Nullable String actionName = scalarString(click.node(CLICK_ACTION));
+            final @Nullable String value = scalarString(click.node(CLICK_VALUE));
+            final ClickEvent.@Nullable Action action = actionName == null ? null : ClickEvent.Action.getByName(actionName);
+            // vanilla silently drops incomplete or client-only click events
+            if (action != null && value != null && action.isAllowedFromServer()) {
+                style = style.withClickEvent(new ClickEvent(action, value));
+            }
+        }
+
+        return style;
+    }
+
+    private static @Nullable String scalarString(final @Nullable ConfigurationNode node) {
+        if (node == null) {
+            return null;
+        }
+        final @Nullable Object raw = node.rawScalar();
+        return raw == null ? null : raw.toString();
+    }
+
+    /**
+     * Write a component to a node, if it can be represented by this codec.
+     *
+     * <p>The node is left untouched if this method returns {@code false}.</p>
+     *
+     * @param component the component to write
+     * @param node the destination node
+     * @return whether the component was written
+     */
+    static boolean write(final Component component, final ConfigurationNode node) {
+        if (!canWrite(component)) {
+            return false;
+        }
+        node.raw(null);
+        writeUnchecked(component, node, true);
+        return true;
+    }
+
+    private static boolean canWrite(final Component component) {
+        if (component instanceof final TranslatableComponent translatable) {
+            for (final Object arg : translatable.getArgs()) {
+                if (arg instanceof final Component argComponent && !canWrite(argComponent)) {
+                    return false;
+                }
+            }
+        } else if (!(component instanceof TextComponent) && !(component instanceof KeybindComponent)) {
+            return false;
+        }
+
+        if (writableStyle(component.getStyle()) == null) {
+            return false;
+        }
+
+        for (final Component sibling : component.getSiblings()) {
+            if (!canWrite(sibling)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the style that would be read back after writing {@code style}.
+     *
+     * @param style the style to write
+     * @return the style as written, or {@code null} if it cannot be written
+     *     without loss
+     */
+    private static @Nullable Style writableStyle(final Style style) {
+        if (style.equals(Style.EMPTY)) {
+            return Style.EMPTY;
+        } else if (style.getHoverEvent() != null) {
+            return null;
+        }
+
+        // Style's accessors collapse unset and false flags, so rebuild the style from what we can observe
+        // and only accept it if nothing was lost.
+        Style rebuilt = Style.EMPTY;
+        if (style.getColor() != null) {
+            rebuilt = rebuilt.withColor(style.getColor());
+        }
+        if (style.isBold()) {
+            rebuilt = rebuilt.withBold(true);
+        }
+        if (style.isItalic()) {
+            rebuilt = rebuilt.withItalic(true);
+        }
+        if (style.isUnderlined()) {
+            rebuilt = rebuilt.applyFormat(ChatFormatting.UNDERLINE);
+        }
+        if (style.isStrikethrough()) {
+            rebuilt = rebuilt.applyFormat(ChatFormatting.STRIKETHROUGH);
+        }
+        if (style.isObfuscated()) {
+            rebuilt = rebuilt.applyFormat(ChatFormatting.OBFUSCATED);
+        }
+        if (style.getInsertion() != null) {
+            rebuilt = rebuilt.withInsertion(style.getInsertion());
+        }
+        if (style.getClickEvent() != null) {
+            rebuilt = rebuilt.withClickEvent(style.getClickEvent());
+        }
+        if (!Style.DEFAULT_FONT.equals(style.getFont())) {
+            rebuilt = rebuilt.withFont(style.getFont());
+        }
+        return rebuilt.equals(style) ? rebuilt : null;
+    }
+
+    private static void writeUnchecked(final Component component, final ConfigurationNode node, final boolean allowBareText) {
+        final Style style = component.getStyle();
+        final boolean emptyStyle = style.equals(Style.EMPTY);
+        if (component instanceof final TextComponent text) {
+            if (allowBareText && emptyStyle && component.getSiblings().isEmpty()) {
+                node.raw(text.getText());
+                return;
+            }
+            node.node(TEXT).raw(text.getText());
+        } else if (component instanceof final TranslatableComponent translatable) {
+            node.node(TRANSLATE).raw(translatable.getKey());
+            final Object[] args = translatable.getArgs();
+            if (args.length > 0) {
+                final ConfigurationNode with = node.node(WITH);
+                for (final Object arg : args) {
+                    if (arg instanceof final Component argComponent) {
+                        // bare strings would be read back as string arguments rather than components
+                        writeUnchecked(argComponent, with.appendListNode(), false);
+                    } else {
+                        with.appendListNode().raw(String.valueOf(arg));
+                    }
+                }
+            }
+        } else if (component instanceof final KeybindComponent keybind) {
+            node.node(KEYBIND).raw(keybind.getName());
+        }
+
+        if (!emptyStyle) {
+            writeStyle(style, node);
+        }
+
+        if (!component.getSiblings().isEmpty()) {
+            final ConfigurationNode extra = node.node(EXTRA);
+            for (final Component sibling : component.getSiblings()) {
+                writeUnchecked(sibling, extra.appendListNode(), true);
+            }
+        }
+    }
+
+    private static void writeStyle(final Style style, final ConfigurationNode node) {
+        if (style.getColor() != null) {
+            node.node(COLOR).raw(style.getColor().serialize());
+        }
+        if (style.isBold()) {
+            node.node(BOLD).raw(true);
+        }
+        if (style.isItalic()) {
+            node.node(ITALIC).raw(true);
+        }
+        if (style.isUnderlined()) {
+            node.node(UNDERLINED).raw(true);
+        }
+        if (style.isStrikethrough()) {
+            node.node(STRIKETHROUGH).raw(true);
+        }
+        if (style.isObfuscated()) {
+            node.node(OBFUSCATED).raw(true);
+        }
+        if (style.getInsertion() != null) {
+            node.node(INSERTION).raw(style.getInsertion());
+        }
+        final @Nullable ClickEvent click = style.getClickEvent();
+        if (click != null) {
+            final ConfigurationNode clickNode = node.node(CLICK_EVENT);
+            clickNode.node(CLICK_ACTION).raw(click.getAction().getName());
+            clickNode.node(CLICK_VALUE).raw(click.getValue());
+        }
+        if (!Style.DEFAULT_FONT.equals(style.getFont())) {
+            node.node(FONT).raw(style.getFont().toString());
+        }
+    }
+
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate.typeserializers;
+
+import com.google.errorprone.annotations.concurrent.LazyInit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import net.minecraft.core.Holder;
+import net.minecraft.core.HolderSet;
+import net.minecraft.core.Registry;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.resources.ResourceKey;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An ordered table of rules mapping {@link HolderSet HolderSets} to values.
+ *
+ * <p>Rules are declared in configuration as a list of
+ * {@code {match: <holder set>, value: <value>}} objects, where the first rule
+ * whose holder set contains an element determines that element's value.
+ * Callers that fall through to later rules, for example when a rule does not
+ * apply in the current context, can instead query every matching value with
+ * {@link #getAll(Holder)}.</p>
+ *
+ * <p>On first lookup the rules are compiled into an array indexed by the raw
+ * id of each registry element, holding the values of the rules matching that
+ * element in rule order. A query costs one id lookup and one array read,
+ * independent of the number of rules or the size of their holder sets.</p>
+ *
+ * @param <E> registry element type
+ * @param <V> value type
+ * @since 3.0.0
+ */
+public final class HolderMap<E, V> {
+
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private final List<Rule<E, V>> rules;
+    private final Supplier<Registry<E>> elementResolver;
+    @LazyInit private volatile @Nullable Compiled<E> compiled;
+    private final HolderResolution.Resolvable refresher = new Refresher();
+
+    /**
+     * Create a new holder map with no rules.
+     *
+     * @param registry the registry elements are drawn from
+     * @param <E> registry element type
+     * @param <V> value type
+     * @return a new empty holder map
+     * @since 3.0.0
+     */
+    public static <E, V> HolderMap<E, V> empty(final ResourceKey<? extends Registry<E>> registry) {
+        return of(registry, List.of());
+    }
+
+    /**
+     * Create a new holder map from a list of rules.
+     *
+     * <p>Earlier rules take priority over later ones.</p>
+     *
+     * @param registry the registry elements are drawn from
+     * @param rules rules, in priority order
+     * @param <E> registry element type
+     * @param <V> value type
+     * @return a new holder map
+     * @since 3.0.0
+     */
+    public static <E, V> HolderMap<E, V> of(final ResourceKey<? extends Registry<E>> registry, final List<Rule<E, V>> rules) {
+        requireNonNull(registry, "registry");
+        return create(rules, () -> RegistryAccess.BUILTIN.get().registryOrThrow(registry));
+    }
+
+    /**
+     * Create a new holder map, tracked for bulk resolution.
+     *
+     * @param rules rules, in priority order
+     * @param elementResolver supplier of the registry elements are drawn from
+     * @param <E> registry element type
+     * @param <V> value type
+     * @return a new holder map
+     */
+    static <E, V> HolderMap<E, V> create(final List<Rule<E, V>> rules, final Supplier<Registry<E>> elementResolver) {
+        final HolderMap<E, V> map = new HolderMap<>(rules, elementResolver);
+        HolderResolution.trackHolderMap(map.refresher);
+        return map;
+    }
+
+    private HolderMap(final List<Rule<E, V>> rules, final Supplier<Registry<E>> elementResolver) {
+        this.rules = List.copyOf(rules);
+        this.elementResolver = elementResolver;
+    }
+
+    /**
+     * Get the rules making up this map, in priority order.
+     *
+     * @return the rules
+     * @since 3.0.0
+     */
+    public List<Rule<E, V>> rules() {
+        return this.rules;
+    }
+
+    /**
+     * Get the value of the first rule matching the provided holder.
+     *
+     * @param holder the holder to query
+     * @return the value of the first matching rule, or {@code null} if none
+     *     match or the holder is not bound
+     * @since 3.0.0
+     */
+    public @Nullable V get(final Holder<E> holder) {
+        if (!holder.isBound()) {
+            return null;
+        }
+        return this.get(holder.value());
+    }
+
+    /**
+     * Get the value of the first rule matching the provided element.
+     *
+     * @param element the element to query
+     * @return the value of the first matching rule, or {@code null} if none
+     *     match
+     * @since 3.0.0
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable V get(final E element) {
+        final List<?> matching = this.matching(element);
+        return matching.isEmpty() ? null : (V) matching.get(0);
+    }
+
+    /**
+     * Get the values of every rule matching the provided holder.
+     *
+     * @param holder the holder to query
+     * @return the values of matching rules in priority order, empty if none
+     *     match or the holder is not bound
+     * @since 3.0.0
+     */
+    public List<V> getAll(final Holder<E> holder) {
+        if (!holder.isBound()) {
+            return List.of();
+        }
+        return this.getAll(holder.value());
+    }
+
+    /**
+     * Get the values of every rule matching the provided element.
+     *
+     * @param element the element to query
+     * @return the values of matching rules in priority order, empty if none
+     *     match
+     * @since 3.0.0
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> getAll(final E element) {
+        return (List<V>) this.matching(element);
+    }
+
+    private List<?> matching(final E element) {
+        final Compiled<E> compiled = this.compiled();
+        final int id = compiled.registry().getId(element);
+        if (id < 0 || id >= compiled.values().length) {
+            return List.of();
+        }
+        return compiled.values()[id];
+    }
+
+    /**
+     * Get the value of the first rule matching the provided holder, or a
+     * default value.
+     *
+     * @param holder the holder to query
+     * @param defaultValue value to return when no rule matches
+     * @return the matching or default value
+     * @since 3.0.0
+     */
+    public V getOrDefault(final Holder<E> holder, final V defaultValue) {
+        final @Nullable V value = this.get(holder);
+        return value == null ? defaultValue : value;
+    }
+
+    private Compiled<E> compiled() {
+        Compiled<E> compiled = this.compiled;
+        if (compiled == null) {
+            this.compiled = compiled = this.compile();
+        }
+        return compiled;
+    }
+
+    private Compiled<E> compile() {
+        final Registry<E> registry = this.elementResolver.get();
+        final Object[][] values = new Object[registry.size()][];
+        Arrays.fill(values, NO_VALUES);
+        // the last rule applied to each element, since a rule may list an element more than once
+        final int[] lastRule = new int[values.length];
+        Arrays.fill(lastRule, -1);
+
+        for (int i = 0; i < this.rules.size(); ++i) {
+            final Rule<E, V> rule = this.rules.get(i);
+            for (final Holder<E> holder : rule.match()) {
+                if (!holder.isBound()) {
+                    continue;
+                }
+                final int id = registry.getId(holder.value());
+                if (id >= 0 && id < values.length && lastRule[id] != i) {
+                    lastRule[id] = i;
+                    final Object[] appended = Arrays.copyOf(values[id], values[id].length + 1);
+                    appended[values[id].length] = rule.value();
+                    values[id] = appended;
+                }
+            }
+        }
+
+        final List<?>[] lists = new List<?>[values.length];
+        for (int id = 0; id < values.length; ++id) {
+            // rule values may be null, which List.of rejects
+            lists[id] = values[id].length == 0 ? List.of() : Collections.unmodifiableList(Arrays.asList(values[id]));
+        }
+        return new Compiled<>(registry, lists);
+    }
+
+    @Override
+    public String toString() {
+        return "HolderMap{rules=" + this.rules + '}';
+    }
+
+    /**
+     * A single entry in a holder map.
+     *
+     * @param match the elements this rule applies to
+     * @param value the value for matched elements
+     * @param <E> registry element type
+     * @param <V> value type
+     * @since 3.0.0
+     */
+    public record Rule<E, V>(HolderSet<E> match, V value) {
+
+        /**
+         * Create a new rule.
+         *
+         * @param match the elements this rule applies to
+         * @param value the value for matched elements
+         * @since 3.0.0
+         */
+        public Rule {
+            requireNonNull(match, "match");
+        }
+
+    }
+
+    /**
+     * Recompiles or discards the compiled table as tags change.
+     */
+    private final class Refresher implements HolderResolution.Resolvable {
+
+        @Override
+        public void refresh() {
+            HolderMap.this.compiled = HolderMap.this.compile();
+        }
+
+        @Override
+        public void invalidate() {
+            HolderMap.this.compiled = null;
+        }
+
+        @Override
+        public String toString() {
+            return HolderMap.this.toString();
+        }
+
+    }
+
+    private record Compiled<E>(Registry<E> registry, List<?>[] values) {}
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate.typeserializers;
+
+import com.google.common.collect.ImmutableList;
+import io.leangen.geantyref.GenericTypeReflector;
+import io.leangen.geantyref.TypeFactory;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+import net.minecraft.core.HolderSet;
+import net.minecraft.core.Registry;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.resources.ResourceKey;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.configurate.ConfigurationNode;
+import org.spongepowered.configurate.ConfigurationOptions;
+import org.spongepowered.configurate.serialize.SerializationException;
+
+final class HolderMapSerializer<E> extends RegistryBasedSerializer<E, HolderMap<E, ?>> {
+
+    private static final String MATCH = "match";
+    private static final String VALUE = "value";
+
+    private final HolderSetSerializer<E> holderSets;
+
+    HolderMapSerializer(final RegistryAccess access, final ResourceKey<? extends Registry<E>> registry) {
+        super(access, registry);
+        this.holderSets = new HolderSetSerializer<>(access, registry);
+    }
+
+    /**
+     * Test whether a type is a {@link HolderMap} keyed by elements of
+     * {@code elementType}.
+     *
+     * @param type the type to test
+     * @param elementType the registry element type
+     * @return whether this serializer can handle the type
+     */
+    static boolean accepts(final Type type, final Type elementType) {
+        return GenericTypeReflector.erase(type) == HolderMap.class
+            && type instanceof final ParameterizedType parameterized
+            && parameterized.getActualTypeArguments()[0].equals(elementType);
+    }
+
+    @Override
+    public HolderMap<E, ?> deserialize(final @NonNull Type type, final @NonNull ConfigurationNode value) throws SerializationException {
+        final Type[] params = typeParameters(type);
+        final Type holderSetType = TypeFactory.parameterizedClass(HolderSet.class, params[0]);
+
+        final ImmutableList.Builder<HolderMap.Rule<E, Object>> rules = ImmutableList.builder();
+        for (final ConfigurationNode child : value.childrenList()) {
+            if (!child.isMap()) {
+                throw new SerializationException(child, type, "Holder map rules must be objects with '" + MATCH + "' and '" + VALUE + "' keys");
+            }
+            final ConfigurationNode matchNode = child.node(MATCH);
+            final HolderSet<E> match;
+            if (matchNode.empty()) {
+                match = this.holderSets.emptyValue(holderSetType, matchNode.options());
+            } else {
+                try {
+                    match = this.holderSets.deserialize(holderSetType, matchNode);
+                } catch (final SerializationException ex) {
+                    ex.initPath(matchNode::path);
+                    throw ex;
+                }
+            }
+            rules.add(new HolderMap.Rule<>(match, child.node(VALUE).get(params[1])));
+        }
+
+        return HolderMap.<E, Object>create(rules.build(), this::uncheckedRegistry);
+    }
+
+    @Override
+    public void serialize(
+        final @NonNull Type type,
+        final @Nullable HolderMap<E, ?> obj,
+        final @NonNull ConfigurationNode value
+    ) throws SerializationException {
+        if (obj == null) {
+            value.raw(null);
+            return;
+        }
+
+        final Type[] params = typeParameters(type);
+        final Type holderSetType = TypeFactory.parameterizedClass(HolderSet.class, params[0]);
+        final List<? extends HolderMap.Rule<E, ?>> rules = obj.rules();
+
+        if (value.childrenList().size() == rules.size()) { // update existing list
+            for (int i = 0; i < rules.size(); ++i) {
+                final ConfigurationNode child = value.node(i);
+                try {
+                    this.writeRule(holderSetType, params[1], rules.get(i), child);
+                } catch (final SerializationException ex) {
+                    ex.initPath(child::path);
+                    throw ex;
+                }
+            }
+        } else {
+            value.raw(null);
+            for (final HolderMap.Rule<E, ?> rule : rules) {
+                this.writeRule(holderSetType, params[1], rule, value.appendListNode());
+            }
+        }
+    }
+
+    private void writeRule(
+        final Type holderSetType,
+        final Type valueType,
+        final HolderMap.Rule<E, ?> rule,
+        final ConfigurationNode target
+    ) throws SerializationException {
+        this.holderSets.serialize(holderSetType, rule.match(), target.node(MATCH));
+        target.node(VALUE).set(valueType, rule.value());
+    }
+
+    @Override
+    public HolderMap<E, ?> emptyValue(final Type specificType, final ConfigurationOptions options) {
+        return HolderMap.<E, Object>create(List.of(), this::uncheckedRegistry);
+    }
+
+    private static Type[] typeParameters(final Type type) throws SerializationException {
+        if (!(type instanceof final ParameterizedType parameterized)) {
+            throw new SerializationException(type, "Raw types are not supported for holder maps");
+        }
+        return parameterized.getActualTypeArguments();
+    }
+
+}
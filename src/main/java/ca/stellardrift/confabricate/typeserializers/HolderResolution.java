@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate.typeserializers;
+
+import com.mojang.logging.LogUtils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+
+/**
+ * Tracks lazily resolved holder collections so they can be resolved in bulk.
+ *
+ * <p>Holder sets are resolved before holder maps, since compiling a map
+ * reads the contents of the sets in its rules.</p>
+ *
+ * <p>Collections are tracked by the factories creating them, once fully
+ * constructed. Whenever a registry's tags are rebound, every tracked
+ * collection is invalidated, so it resolves again on its next query even
+ * when nothing resolves it in bulk.</p>
+ */
+final class HolderResolution {
+
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    /**
+     * Target number of batches per available processor, to balance
+     * scheduling overhead against uneven batch costs.
+     */
+    private static final int BATCHES_PER_PROCESSOR = 4;
+
+    private static final Set<Resolvable> HOLDER_SETS = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private static final Set<Resolvable> HOLDER_MAPS = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private HolderResolution() {}
+
+    /**
+     * A value that resolves its contents against the current registry state.
+     */
+    interface Resolvable {
+
+        /**
+         * Resolve contents against the current registry state, replacing any
+         * previously resolved contents.
+         */
+        void refresh();
+
+        /**
+         * Discard any resolved contents, so they are resolved again when next
+         * queried.
+         */
+        void invalidate();
+
+    }
+
+    static void trackHolderSet(final Resolvable set) {
+        HOLDER_SETS.add(set);
+    }
+
+    static void trackHolderMap(final Resolvable map) {
+        HOLDER_MAPS.add(map);
+    }
+
+    static void invalidateAll() {
+        for (final Resolvable value : snapshot(HOLDER_SETS)) {
+            value.invalidate();
+        }
+        for (final Resolvable value : snapshot(HOLDER_MAPS)) {
+            value.invalidate();
+        }
+    }
+
+    static CompletableFuture<Void> resolveAll(final Executor executor) {
+        return resolve(snapshot(HOLDER_SETS), executor)
+            .thenCompose(ignored -> resolve(snapshot(HOLDER_MAPS), executor));
+    }
+
+    private static List<Resolvable> snapshot(final Set<Resolvable> tracked) {
+        synchronized (tracked) {
+            return new ArrayList<>(tracked);
+        }
+    }
+
+    private static CompletableFuture<Void> resolve(final List<Resolvable> values, final Executor executor) {
+        if (values.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final int batchCount = Math.min(values.size(), Runtime.getRuntime().availableProcessors() * BATCHES_PER_PROCESSOR);
+        final int batchSize = (values.size() + batchCount - 1) / batchCount;
+        final List<CompletableFuture<Void>> batches = new ArrayList<>(batchCount);
+        for (int start = 0; start < values.size(); start += batchSize) {
+            final List<Resolvable> batch = values.subList(start, Math.min(start + batchSize, values.size()));
+            batches.add(CompletableFuture.runAsync(() -> {
+                for (final Resolvable value : batch) {
+                    try {
+                        value.refresh();
+                    } catch (final RuntimeException ex) {
+                        LOGGER.error("Failed to resolve contents of {}", value, ex);
+                    }
+                }
+            }, executor));
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0]));
+    }
+
+}
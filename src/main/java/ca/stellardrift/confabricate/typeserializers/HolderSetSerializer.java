@@ -48,7 +48,7 @@ final class HolderSetSerializer<V> extends RegistryBasedSerializer<V, HolderSet<
             for (final ConfigurationNode child : value.childrenList()) {
                 entries.add(ConfabricateHolderSet.TagEntry.fromNode(this.registry, child));
             }
-            return new ConfabricateHolderSet<>(entries.build(), this::uncheckedRegistry);
+            return ConfabricateHolderSet.create(entries.build(), this::uncheckedRegistry);
         } else if (!value.isMap()) { // definitely a reference
             final String id = value.getString();
             return this.registry().getOrCreateTag(TagKey.create(this.registry, ResourceLocationSerializer.createIdentifier(id)));
@@ -61,7 +61,7 @@ final class HolderSetSerializer<V> extends RegistryBasedSerializer<V, HolderSet<
                 if (required && id.startsWith(TAG_PREFIX)) {
                     return this.registry().getOrCreateTag(TagKey.create(this.registry, ResourceLocationSerializer.createIdentifier(id.substring(1))));
                 } else {
-                    return new ConfabricateHolderSet<>(
+                    return ConfabricateHolderSet.create(
                         List.of(ConfabricateHolderSet.TagEntry.fromNode(this.registry, value)),
                         this::uncheckedRegistry
                     );
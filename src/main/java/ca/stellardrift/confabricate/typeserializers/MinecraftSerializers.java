@@ -15,7 +15,9 @@
  */
 package ca.stellardrift.confabricate.typeserializers;
 
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableSet;
+import com.google.errorprone.annotations.RestrictedApi;
 import com.google.errorprone.annotations.concurrent.LazyInit;
 import com.mojang.logging.LogUtils;
 import com.mojang.serialization.Codec;
@@ -30,6 +32,8 @@ import java.lang.reflect.Type;
 import java.lang.reflect.WildcardType;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 import net.minecraft.core.Holder;
 import net.minecraft.core.HolderSet;
@@ -147,8 +151,9 @@ public final class MinecraftSerializers {
      * for values in a registry.
      *
      * <p>This includes a serializer for the literal values, a serializer
-     * for {@link Holder Holders} of values, and a serializer for
-     * {@link HolderSet HolderSets} (tags) of values.</p>
+     * for {@link Holder Holders} of values, a serializer for
+     * {@link HolderSet HolderSets} (tags) of values, and a serializer for
+     * {@link HolderMap HolderMaps} keyed by values.</p>
      *
      * @param builder the builder to populate
      * @param entryType the type contained in the registry
@@ -175,6 +180,57 @@ public final class MinecraftSerializers {
             (TypeToken<HolderSet<T>>) TypeToken.get(TypeFactory.parameterizedClass(HolderSet.class, entryType.getType())),
             new HolderSetSerializer<>(access, registry)
         );
+        builder.register(
+            type -> HolderMapSerializer.accepts(type, entryType.getType()),
+            new HolderMapSerializer<>(access, registry)
+        );
+    }
+
+    /**
+     * Eagerly resolve the contents of every config-defined
+     * {@link HolderSet} and {@link HolderMap} that is currently loaded.
+     *
+     * <p>These are normally resolved lazily, by whichever thread first
+     * queries them. Resolving them in bulk on a worker pool keeps that cost
+     * off latency-sensitive threads. Any previously resolved contents are
+     * replaced.</p>
+     *
+     * <p>Confabricate calls this automatically on server start and after
+     * data pack reloads when Fabric API's lifecycle events are present.
+     * Without them, resolved contents are still discarded whenever tags are
+     * rebound, and resolved again lazily.</p>
+     *
+     * @param executor the executor to resolve on
+     * @return a future completing once every value has been resolved
+     * @since 3.0.0
+     */
+    public static CompletableFuture<Void> resolveHolders(final Executor executor) {
+        return HolderResolution.resolveAll(requireNonNull(executor, "executor"));
+    }
+
+    /**
+     * Discard the resolved contents of every config-defined holder set and
+     * holder map, after a registry's tags have been rebound.
+     */
+    @RestrictedApi(explanation = "only for use by Confabricate's registry hooks",
+            link = "", allowedOnPath = ".*/ca/stellardrift/confabricate/.*")
+    public static void invalidateHolders() {
+        HolderResolution.invalidateAll();
+    }
+
+    /**
+     * Get statistics for the cache of {@link Component Components} parsed
+     * from JSON strings.
+     *
+     * <p>Configuration values holding a component as a JSON string are
+     * parsed once per distinct string. Every deserialization still receives
+     * its own copy of the component.</p>
+     *
+     * @return a snapshot of cache statistics
+     * @since 3.0.0
+     */
+    public static CacheStats componentCacheStats() {
+        return ComponentSerializer.parseCacheStats();
     }
 
     /**
@@ -227,6 +283,7 @@ public final class MinecraftSerializers {
      *         as raw values or {@link Holder}</li>
      *     <li>{@link HolderSet} of a combination of identifiers and
      *          tags for any taggable registry</li>
+     *     <li>{@link HolderMap} of rules matching holder sets to values</li>
      *     <li>{@link ItemStack}</li>
      *     <li>{@link CompoundTag} instances</li>
      * </ul>
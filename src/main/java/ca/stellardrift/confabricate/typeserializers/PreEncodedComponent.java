@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 zml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.stellardrift.confabricate.typeserializers;
+
+import com.google.errorprone.annotations.RestrictedApi;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.MutableComponent;
+import net.minecraft.network.chat.Style;
+import net.minecraft.network.chat.TextComponent;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A component that caches its network encoding.
+ *
+ * <p>Vanilla re-serializes a component to JSON every time it is written to
+ * a packet. A pre-encoded component serializes its contents once, when it
+ * is created, and Confabricate writes the cached bytes directly on every
+ * later send.</p>
+ *
+ * <p>Declare a configuration field with this type to have Confabricate's
+ * component serializer produce pre-encoded values, refreshed on each
+ * load.</p>
+ *
+ * <p>The encoding is made from a private copy of the wrapped component,
+ * which is never exposed. The cached bytes are only written while this
+ * component's own style is empty and its single child is still the copy
+ * added when it was created, with the same style and number of children.
+ * These are identity checks, so sending does not compare component trees,
+ * and restyling, appending to or replacing the child falls back to vanilla
+ * encoding rather than sending stale contents. Components nested deeper in
+ * the child are not checked, and should be treated as fixed.</p>
+ *
+ * @since 3.0.0
+ */
+public final class PreEncodedComponent extends TextComponent {
+
+    /**
+     * The maximum length of a component's JSON form accepted by the
+     * network protocol.
+     */
+    private static final int MAX_JSON_LENGTH = 262144;
+
+    // the contents that were encoded, never exposed so they cannot change
+    private final Component source;
+    // the child sent in place of the cached bytes, and its state when encoded
+    private final Component child;
+    private final Style childStyle;
+    private final int childSiblings;
+    private final byte @Nullable [] encoded;
+
+    /**
+     * Create a pre-encoded wrapper around a component.
+     *
+     * @param component the component to encode
+     * @return a pre-encoded component
+     * @since 3.0.0
+     */
+    public static PreEncodedComponent of(final Component component) {
+        if (component instanceof final PreEncodedComponent encoded) {
+            return encoded;
+        }
+        return new PreEncodedComponent(requireNonNull(component, "component"));
+    }
+
+    private PreEncodedComponent(final Component component) {
+        super("");
+        this.source = component.copy();
+        this.child = component.copy();
+        this.childStyle = this.child.getStyle();
+        this.childSiblings = this.child.getSiblings().size();
+        this.getSiblings().add(this.child);
+
+        final String json = Component.Serializer.toJson(this.source);
+        // leave oversized values to vanilla, so they fail the same way
+        this.encoded = json.length() > MAX_JSON_LENGTH ? null : json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get a copy of the component that has been encoded.
+     *
+     * <p>Each call returns a new copy, which may be freely modified without
+     * affecting this component.</p>
+     *
+     * @return a copy of the wrapped component
+     * @since 3.0.0
+     */
+    public MutableComponent component() {
+        return this.source.copy();
+    }
+
+    /**
+     * Write the cached encoding of this component to a buffer, in the same
+     * format as {@link FriendlyByteBuf#writeComponent(Component)}.
+     *
+     * @param buf the buffer to write to
+     * @return whether a cached encoding was written
+     * @since 3.0.0
+     */
+    @RestrictedApi(explanation = "only for use by Confabricate's network hooks",
+            link = "", allowedOnPath = ".*/ca/stellardrift/confabricate/.*")
+    public boolean writeEncoded(final FriendlyByteBuf buf) {
+        final byte @Nullable [] encoded = this.encoded;
+        final List<Component> siblings = this.getSiblings();
+        if (encoded == null
+            || !this.getStyle().isEmpty()
+            || siblings.size() != 1
+            || siblings.get(0) != this.child
+            || this.child.getStyle() != this.childStyle
+            || this.child.getSiblings().size() != this.childSiblings) {
+            return false;
+        }
+
+        buf.writeVarInt(encoded.length);
+        buf.writeBytes(encoded);
+        return true;
+    }
+
+}
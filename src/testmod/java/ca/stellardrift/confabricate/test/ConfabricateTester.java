@@ -16,7 +16,11 @@
 package ca.stellardrift.confabricate.test;
 
 import ca.stellardrift.confabricate.Confabricate;
+import ca.stellardrift.confabricate.ParallelDataFixerTransformation;
+import ca.stellardrift.confabricate.SharedConfiguration;
+import ca.stellardrift.confabricate.typeserializers.HolderMap;
 import ca.stellardrift.confabricate.typeserializers.MinecraftSerializers;
+import ca.stellardrift.confabricate.typeserializers.PreEncodedComponent;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -37,7 +41,7 @@ import net.fabricmc.loader.api.ModContainer;
 import net.minecraft.Util;
 import net.minecraft.core.Holder;
 import net.minecraft.core.HolderSet;
-import net.minecraft.network.chat.Component;
+import net.minecraft.core.Registry;
 import net.minecraft.network.chat.TextColor;
 import net.minecraft.network.chat.TextComponent;
 import net.minecraft.network.protocol.game.ClientboundContainerSetSlotPacket;
@@ -61,8 +65,8 @@ import org.apache.logging.log4j.Logger;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.spongepowered.configurate.CommentedConfigurationNode;
 import org.spongepowered.configurate.ConfigurateException;
+import org.spongepowered.configurate.ConfigurationNode;
 import org.spongepowered.configurate.ConfigurationOptions;
-import org.spongepowered.configurate.extra.dfu.v4.DataFixerTransformation;
 import org.spongepowered.configurate.objectmapping.ConfigSerializable;
 import org.spongepowered.configurate.objectmapping.meta.Comment;
 import org.spongepowered.configurate.reference.ConfigurationReference;
@@ -80,6 +84,7 @@ public class ConfabricateTester implements ModInitializer {
 
     private @MonotonicNonNull ConfigurationReference<CommentedConfigurationNode> configFile;
     private @MonotonicNonNull ValueReference<TestmodConfig, CommentedConfigurationNode> config;
+    private @MonotonicNonNull SharedConfiguration<CommentedConfigurationNode> sharedConfig;
 
     /**
      * Get the active mod instance, throwing an {@link IllegalStateException} if
@@ -112,19 +117,21 @@ public class ConfabricateTester implements ModInitializer {
 
             // Handle updating with game changes
             final CommentedConfigurationNode node = this.configFile.node();
-            final DataFixerTransformation xform = Confabricate.minecraftDfuBuilder()
+            final ParallelDataFixerTransformation xform = Confabricate.parallelMinecraftDfuBuilder()
                     .addType(References.ITEM_STACK, "items", WILDCARD_OBJECT) // every child of "items" should be upgraded as an ItemStack
                     .build();
 
             final boolean wasEmpty = node.empty();
             final int oldVersion = xform.version(node);
             xform.apply(node);
+            migrateProtection(node.node("protection"));
             final int newVersion = xform.version(node);
             if (newVersion > oldVersion && !wasEmpty) {
                 LOGGER.info("Updated configuration from version {} to {}", oldVersion, newVersion);
             }
 
             this.config = this.configFile.referenceTo(TestmodConfig.class);
+            this.sharedConfig = SharedConfiguration.of(this.configFile);
             ResourceManagerHelper.get(PackType.SERVER_DATA).registerReloadListener(new SimpleResourceReloadListener<Void>() {
                 @Override
                 public ResourceLocation getFabricId() {
@@ -160,7 +167,10 @@ public class ConfabricateTester implements ModInitializer {
                     return Collections.singletonList(ResourceReloadListenerKeys.TAGS);
                 }
             });
-            this.configFile.save();
+            Confabricate.saveAsync(this.configFile).exceptionally(err -> {
+                LOGGER.error("Unable to save configuration for {}", container.getMetadata().getId(), err);
+                return null;
+            });
         } catch (final ConfigurateException e) {
             throw new RuntimeException("Unable to load configuration for " + container.getMetadata().getId(), e);
         }
@@ -226,9 +236,41 @@ public class ConfabricateTester implements ModInitializer {
         return this.config.get();
     }
 
+    ValueReference<TestmodConfig, CommentedConfigurationNode> configurationReference() {
+        return this.config;
+    }
+
+    /**
+     * Convert protection entries from the list format used before holder
+     * maps, where each entry held its own {@code types}, to holder map rules.
+     *
+     * @param protection the protection section
+     */
+    private static void migrateProtection(final ConfigurationNode protection) {
+        for (final ConfigurationNode section : protection.childrenMap().values()) {
+            for (final ConfigurationNode entry : section.childrenList()) {
+                if (!entry.isMap() || entry.node("types").virtual() || !entry.node("match").virtual()) {
+                    continue;
+                }
+                for (final Object key : List.copyOf(entry.childrenMap().keySet())) {
+                    if (!"types".equals(key)) {
+                        entry.node("value", key).from(entry.node(key));
+                        entry.removeChild(key);
+                    }
+                }
+                entry.node("match").from(entry.node("types"));
+                entry.removeChild("types");
+            }
+        }
+    }
+
+    SharedConfiguration<CommentedConfigurationNode> sharedConfiguration() {
+        return this.sharedConfig;
+    }
+
     @ConfigSerializable
     public static class TestmodConfig {
-        private Component message = new TextComponent("Welcome to the server!");
+        private PreEncodedComponent message = PreEncodedComponent.of(new TextComponent("Welcome to the server!"));
         private List<ItemStack> items = new ArrayList<>();
         @Comment("Protection configuration. Entries for each type will be "
                 + "processed in order, and will be denied based on the first matching.")
@@ -240,7 +282,7 @@ public class ConfabricateTester implements ModInitializer {
             this.items.add(stack);
         }
 
-        public Component message() {
+        public PreEncodedComponent message() {
             return this.message;
         }
 
@@ -259,17 +301,16 @@ public class ConfabricateTester implements ModInitializer {
         @Comment("Log checks performed")
         private boolean debug;
         @Comment("Check for breaking blocks")
-        private List<ProtectionEntry<Block>> blockBreak = new ArrayList<>();
+        private HolderMap<Block, ProtectionEntry> blockBreak = HolderMap.of(
+            Registry.BLOCK_REGISTRY,
+            List.of(new HolderMap.Rule<>(HolderSet.direct(List.of()), new ProtectionEntry()))
+        );
         @Comment("Check for placing blocks")
-        private List<ProtectionEntry<Block>> blockPlace = new ArrayList<>();
+        private HolderMap<Block, ProtectionEntry> blockPlace = HolderMap.empty(Registry.BLOCK_REGISTRY);
         @Comment("Checked for using (i.e. right clicking with) an item")
-        private List<ProtectionEntry<Item>> useItem = new ArrayList<>();
+        private HolderMap<Item, ProtectionEntry> useItem = HolderMap.empty(Registry.ITEM_REGISTRY);
         @Comment("Checked for attacking (i.e. left clicking) with an item")
-        private List<ProtectionEntry<Item>> attackWithItem = new ArrayList<>();
-
-        ProtectionSection() {
-            this.blockBreak.add(new ProtectionEntry<>());
-        }
+        private HolderMap<Item, ProtectionEntry> attackWithItem = HolderMap.empty(Registry.ITEM_REGISTRY);
 
         public InteractionResult testPlace(final ServerPlayer actor, final Block targetBlock) {
             return this.test(
@@ -307,11 +348,11 @@ public class ConfabricateTester implements ModInitializer {
             );
         }
 
-        private <V> InteractionResult test(final List<ProtectionEntry<V>> entries, final String description, final ServerPlayer actor,
+        private <V> InteractionResult test(final HolderMap<V, ProtectionEntry> entries, final String description, final ServerPlayer actor,
                 final Holder<V> target) {
             InteractionResult result = InteractionResult.PASS;
-            for (final ProtectionEntry<V> entry : entries) {
-                result = entry.test(actor, target);
+            for (final ProtectionEntry entry : entries.getAll(target)) {
+                result = entry.test(actor);
                 if (result == InteractionResult.FAIL) {
                     if (entry.denyMessage != null) {
                         actor.sendMessage(entry.denyMessage, Util.NIL_UUID);
@@ -329,23 +370,19 @@ public class ConfabricateTester implements ModInitializer {
     }
 
     @ConfigSerializable
-    static class ProtectionEntry<V> {
+    static class ProtectionEntry {
         @Comment("Operator level to exempt users from this protection")
         private int exemptLevel = 2;
         @Comment("Message to send when a user is forbidden from this action")
-        private Component denyMessage = new TextComponent("You cannot do that!").withStyle(s -> s.withColor(TextColor.fromRgb(0xFF0000)));
-        @Comment("Types to catch in this entry")
-        private HolderSet<V> types = HolderSet.direct(List.of());
+        private PreEncodedComponent denyMessage = PreEncodedComponent.of(
+            new TextComponent("You cannot do that!").withStyle(s -> s.withColor(TextColor.fromRgb(0xFF0000)))
+        );
 
-        public InteractionResult test(final ServerPlayer player, final Holder<V> value) {
+        public InteractionResult test(final ServerPlayer player) {
             if (this.exemptLevel != -1 && player.hasPermissions(this.exemptLevel)) { // we are exempt
                 return InteractionResult.PASS;
             }
 
-            if (this.types == null || !this.types.contains(value)) { // not an applicable item
-                return InteractionResult.PASS;
-            }
-
             return InteractionResult.FAIL; // block
         }
     }
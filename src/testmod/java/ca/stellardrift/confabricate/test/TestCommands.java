@@ -15,9 +15,15 @@
  */
 package ca.stellardrift.confabricate.test;
 
+import ca.stellardrift.confabricate.BulkMigrator;
+import ca.stellardrift.confabricate.Confabricate;
+import ca.stellardrift.confabricate.MigrationReport;
 import ca.stellardrift.confabricate.NbtNodeAdapter;
+import ca.stellardrift.confabricate.ReloadStatistics;
+import ca.stellardrift.confabricate.SharedConfiguration;
 import ca.stellardrift.confabricate.typeserializers.MinecraftSerializers;
 import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.builder.RequiredArgumentBuilder;
@@ -28,8 +34,14 @@ import java.io.StringReader;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
@@ -48,19 +60,24 @@ import net.minecraft.network.chat.TextColor;
 import net.minecraft.network.chat.TextComponent;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.util.datafix.fixes.References;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.entity.BlockEntity;
 import org.spongepowered.configurate.BasicConfigurationNode;
+import org.spongepowered.configurate.CommentedConfigurationNode;
 import org.spongepowered.configurate.ConfigurateException;
 import org.spongepowered.configurate.ConfigurationNode;
 import org.spongepowered.configurate.gson.GsonConfigurationLoader;
 import org.spongepowered.configurate.objectmapping.ConfigSerializable;
+import org.spongepowered.configurate.reference.ValueReference;
+import org.spongepowered.configurate.serialize.SerializationException;
 
 import static net.minecraft.commands.Commands.argument;
 import static net.minecraft.commands.Commands.literal;
+import static org.spongepowered.configurate.transformation.ConfigurationTransformation.WILDCARD_OBJECT;
 
 final class TestCommands {
 
@@ -69,12 +86,19 @@ final class TestCommands {
     private static final Path currentDir = FileSystems.getDefault().getPath(".");
     private static final Component COMMA = new TextComponent(", ");
     private static final TextColor MESSAGE_COLOR = TextColor.fromRgb(0x2268ab);
+    private static final long CONTENTION_MILLIS = 2_000;
+    private static final int BENCHMARK_ITERATIONS = 1_000_000;
+    private static final int DESERIALIZE_ITERATIONS = 10_000;
 
     public static void register(final ConfabricateTester mod, final CommandDispatcher<CommandSourceStack> src) {
         src.register(literal("confabricate")
                 .requires(scs -> scs.hasPermission(4))
                 .then(dumpCommand())
-                .then(parseObjectCommand()));
+                .then(parseObjectCommand())
+                .then(contentionCommand(mod))
+                .then(benchmarkCommand(mod))
+                .then(reloadsCommand())
+                .then(migrateCommand()));
         //src.register(literal("confab").redirect(root));
 
         src.register(literal("test-kit")
@@ -155,6 +179,184 @@ final class TestCommands {
         }));
     }
 
+    static LiteralArgumentBuilder<CommandSourceStack> contentionCommand(final ConfabricateTester mod) {
+        return literal("contention").then(argument("threads", IntegerArgumentType.integer(1, 64)).executes(ctx -> {
+            final int threads = IntegerArgumentType.getInteger(ctx, "threads");
+            final CommandSourceStack source = ctx.getSource();
+            final SharedConfiguration<CommentedConfigurationNode> shared = mod.sharedConfiguration();
+            final Object lock = new Object();
+
+            CompletableFuture.supplyAsync(() -> {
+                // what mods do today: guard the live tree with their own lock, while a writer holds it to change the tree
+                final double locked = readsPerMillisecond(threads, () -> {
+                    synchronized (lock) {
+                        return shared.reference().node().node("protection", "debug").getBoolean();
+                    }
+                }, () -> {
+                    synchronized (lock) {
+                        shared.reference().node().copy();
+                    }
+                });
+                final double lockFree = readsPerMillisecond(threads, () -> shared.node("protection", "debug").getBoolean(), shared::refresh);
+                return new double[] {locked, lockFree};
+            }).whenComplete((results, err) -> source.getServer().execute(() -> {
+                if (err != null) {
+                    ConfabricateTester.LOGGER.error("Contention benchmark failed", err);
+                    source.sendFailure(new TextComponent("Contention benchmark failed: " + err.getMessage()));
+                    return;
+                }
+                source.sendSuccess(new TextComponent(String.format(
+                    "%d readers, 1 writer: locked live tree %.0f reads/ms, shared snapshot %.0f reads/ms", threads, results[0], results[1]
+                )).withStyle(style -> style.withColor(MESSAGE_COLOR)), false);
+            }));
+            return 1;
+        }));
+    }
+
+    static LiteralArgumentBuilder<CommandSourceStack> benchmarkCommand(final ConfabricateTester mod) {
+        return literal("benchmark").executes(ctx -> {
+            final CommandSourceStack source = ctx.getSource();
+            final ValueReference<ConfabricateTester.TestmodConfig, CommentedConfigurationNode> reference = mod.configurationReference();
+            final AtomicReference<ConfabricateTester.TestmodConfig> field = new AtomicReference<>(reference.get());
+
+            CompletableFuture.supplyAsync(() -> {
+                // the lower bound: a single volatile field load
+                final double volatileField = nanosPerGet(BENCHMARK_ITERATIONS, field::get);
+                final double valueReference = nanosPerGet(BENCHMARK_ITERATIONS, reference::get);
+                // what a mod without a value reference does: deserialize from the node on every read
+                final double deserialize = nanosPerGet(DESERIALIZE_ITERATIONS, () -> {
+                    try {
+                        return reference.node().get(ConfabricateTester.TestmodConfig.class);
+                    } catch (final SerializationException ex) {
+                        throw new CompletionException(ex);
+                    }
+                });
+                return new double[] {volatileField, valueReference, deserialize};
+            }).whenComplete((results, err) -> source.getServer().execute(() -> {
+                if (err != null) {
+                    ConfabricateTester.LOGGER.error("Read benchmark failed", err);
+                    source.sendFailure(new TextComponent("Read benchmark failed: " + err.getMessage()));
+                    return;
+                }
+                source.sendSuccess(new TextComponent(String.format(
+                    "volatile field %.1f ns/get, referenceTo(...).get() %.1f ns/get, node deserialization %.1f ns/get",
+                    results[0], results[1], results[2]
+                )).withStyle(style -> style.withColor(MESSAGE_COLOR)), false);
+            }));
+            return 1;
+        });
+    }
+
+    static LiteralArgumentBuilder<CommandSourceStack> reloadsCommand() {
+        return literal("reloads").executes(ctx -> {
+            final ReloadStatistics stats = Confabricate.statistics().loads();
+            ctx.getSource().sendSuccess(new TextComponent(String.format(
+                "%d loads: %d nodes reused, %d created, %d removed, %d bytes allocated per load",
+                stats.loads(), stats.nodesReused(), stats.nodesCreated(), stats.nodesRemoved(), stats.bytesPerLoad()
+            )).withStyle(style -> style.withColor(MESSAGE_COLOR)), false);
+            return 1;
+        });
+    }
+
+    static LiteralArgumentBuilder<CommandSourceStack> migrateCommand() {
+        return literal("migrate").then(path("directory").executes(ctx -> {
+            final Path directory = path("directory", ctx);
+            final CommandSourceStack source = ctx.getSource();
+            final BulkMigrator migrator = BulkMigrator.builder()
+                .transformation(Confabricate.parallelMinecraftDfuBuilder()
+                    .addType(References.ITEM_STACK, "items", WILDCARD_OBJECT)
+                    .build())
+                .build();
+
+            CompletableFuture.supplyAsync(() -> {
+                try {
+                    return migrator.migrate(directory);
+                } catch (final IOException | InterruptedException ex) {
+                    throw new CompletionException(ex);
+                }
+            }).whenComplete((report, err) -> source.getServer().execute(() -> {
+                if (err != null) {
+                    ConfabricateTester.LOGGER.error("Unable to migrate files in {}", directory, err);
+                    source.sendFailure(new TextComponent("Unable to migrate files: " + err.getMessage()));
+                    return;
+                }
+                for (final MigrationReport.FileResult file : report.files()) {
+                    ConfabricateTester.LOGGER.info("{}: {} -> {} in {} ms{}", file.file(), file.fromVersion(), file.toVersion(),
+                        file.elapsed().toMillis(), file.error() == null ? "" : " (failed: " + file.error().getMessage() + ")");
+                }
+                source.sendSuccess(new TextComponent(String.format(
+                    "Migrated %d of %d files in %d ms, %d failed", report.migrated(), report.files().size(),
+                    report.elapsed().toMillis(), report.failed().size()
+                )).withStyle(style -> style.withColor(MESSAGE_COLOR)), false);
+            }));
+            return 1;
+        }));
+    }
+
+    private static double nanosPerGet(final int iterations, final Supplier<?> get) {
+        int sink = 0;
+        for (int i = 0; i < iterations; ++i) { // warm up
+            sink += System.identityHashCode(get.get());
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            sink += System.identityHashCode(get.get());
+        }
+        final long elapsed = System.nanoTime() - start;
+        if (sink == 42) { // keep results live
+            ConfabricateTester.LOGGER.debug("Benchmark sink hit");
+        }
+        return (double) elapsed / iterations;
+    }
+
+    private static double readsPerMillisecond(final int readers, final BooleanSupplier read, final Runnable write) {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final LongAdder reads = new LongAdder();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < readers; ++i) {
+            threads.add(new Thread(() -> {
+                long count = 0;
+                int sink = 0;
+                while (running.get()) {
+                    if (read.getAsBoolean()) {
+                        sink++;
+                    }
+                    count++;
+                }
+                reads.add(count);
+                if (sink == 42) { // keep results live
+                    ConfabricateTester.LOGGER.debug("Benchmark sink hit");
+                }
+            }, "Confabricate contention reader #" + i));
+        }
+        threads.add(new Thread(() -> {
+            while (running.get()) {
+                write.run();
+                try {
+                    Thread.sleep(1);
+                } catch (final InterruptedException ex) {
+                    return;
+                }
+            }
+        }, "Confabricate contention writer"));
+
+        threads.forEach(Thread::start);
+        try {
+            Thread.sleep(CONTENTION_MILLIS);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        running.set(false);
+        for (final Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return (double) reads.sum() / CONTENTION_MILLIS;
+    }
+
     static LiteralArgumentBuilder<CommandSourceStack> dumpCommand() {
         return literal("dump").then(path("file")
                 .then(literal("player").then(argument("ply", EntityArgument.player()).executes(ctx -> {